@@ -0,0 +1,357 @@
+/**
+ * File header for BatchRunner.java
+ * Description: Replays move scripts on levels without a window, through
+ * the same recordAndMove and undo the game uses, and reports the results.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Class header: BatchRunner
+ * A script is a string of the commands of play(): w, a, s and d move, u
+ * undoes, r redoes, and any other char is skipped. A script stops early
+ * once the level is passed, like play() does. Scripts are given on the
+ * command line or in a file of one session per line; a line may start with
+ * the number of the level it was played on, counting from 0, and otherwise
+ * it is played on every level. After a session the game is rewound to the
+ * start of the level by undoing every move, which is cheaper than loading
+ * the level again, so sessions of the same level in a row load it once.
+ */
+public class BatchRunner {
+    // nanoseconds in one second
+    private static final double NANOS = 1e9;
+    // the chars randomScript() draws from, each as likely as the others
+    private static final String RANDOM_COMMANDS = "wwwaaasssddduurr";
+    // the seed of the random scripts of the checks of the other mains
+    static final long CHECK_SEED = 3;
+    // the commands of one random script of those checks
+    static final int CHECK_INPUTS = 60;
+
+    static final String USAGE =
+        "Usage: java BatchRunner [-q] [-b] [-m] <level file, directory or " +
+        "pack>" +
+        " <script or script file>\n" +
+        "  a script is a string of w a s d u r, a script file holds one " +
+        "per line,\n  optionally starting with the number of the level it is " +
+        "for (from 0)\n" +
+        "  -q  print the totals only\n" +
+        "  -b  print the board at the end of every session\n" +
+        "  -m  print the engine metrics at the end\n";
+
+    /**
+     * One level to replay on, a file or a level in a pack.
+     */
+    static class LevelRef {
+        String name; // printed with the results
+        String file; // the level file, null for a level of a pack
+        LevelPack pack; // the pack holding the level, or null
+        int index; // the number of the level in the pack
+
+        /**
+         * read the level.
+         *
+         * @return the state of the level
+         * @throws IOException if the level can not be read
+         */
+        GameState load() throws IOException {
+            if (pack != null) {
+                return pack.level(index);
+            }
+            return LevelFormat.load(file);
+        }
+    }
+
+    /**
+     * One recorded session.
+     */
+    static class Session {
+        int level; // the number of the level, -1 for every level
+        String moves; // the script
+
+        /**
+         * create a session.
+         *
+         * @param level the number of the level, -1 for every level
+         * @param moves the script
+         */
+        Session(int level, String moves) {
+            this.level = level;
+            this.moves = moves;
+        }
+    }
+
+    List<LevelRef> levels; // every level named on the command line
+    boolean quiet; // print the totals only
+    boolean boards; // print the board after every session
+    Streamline game; // the game of the loaded level
+    int loaded; // the number of the loaded level, -1 if none
+    long moves; // the number of script commands applied
+    long sessions; // the number of sessions played
+    long passed; // the number of sessions that passed their level
+
+    /**
+     * create a runner over the given levels.
+     *
+     * @param levels the levels scripts are played on
+     * @param quiet  print the totals only
+     * @param boards print the board after every session
+     */
+    public BatchRunner(List<LevelRef> levels, boolean quiet,
+                       boolean boards) {
+        this.levels = levels;
+        this.quiet = quiet;
+        this.boards = boards;
+        this.loaded = -1;
+    }
+
+    /**
+     * replay one session on one level and count the results.
+     *
+     * @param level  the number of the level
+     * @param script the commands to apply
+     * @throws IOException if the level can not be read
+     */
+    void run(int level, String script) throws IOException {
+        if (level != loaded) {
+            game = new Streamline(levels.get(level).load());
+            loaded = level;
+        } else {
+            // back to the start of the level, with nothing to redo
+            while (game.previousMoves.undo(game.currentState)) {
+                continue;
+            }
+            game.previousMoves.clear();
+        }
+        GameState state = game.currentState;
+        int applied = 0;
+        for (int i = 0; i < script.length() && !state.levelPassed; i++) {
+            if (apply(game, script.charAt(i))) {
+                applied = applied + 1;
+            }
+        }
+        moves = moves + applied;
+        sessions = sessions + 1;
+        if (state.levelPassed) {
+            passed = passed + 1;
+        }
+        if (!quiet) {
+            System.out.printf("%s: %s after %d moves, player at %d %d, "
+                    + "hash %016x\n", levels.get(level).name,
+                    state.levelPassed ? "passed" : "not passed", applied,
+                    state.playerRow, state.playerCol, state.zobristHash());
+        }
+        if (boards) {
+            System.out.print(state);
+        }
+    }
+
+    /**
+     * apply one command of a script to a game.
+     *
+     * @param game    the game
+     * @param command w, a, s or d to move, u to undo or r to redo
+     * @return false if the char is no command and was skipped
+     */
+    static boolean apply(Streamline game, char command) {
+        switch (command) {
+            case 'w':
+            case 'W':
+                game.recordAndMove(Direction.UP);
+                return true;
+            case 'a':
+            case 'A':
+                game.recordAndMove(Direction.LEFT);
+                return true;
+            case 's':
+            case 'S':
+                game.recordAndMove(Direction.DOWN);
+                return true;
+            case 'd':
+            case 'D':
+                game.recordAndMove(Direction.RIGHT);
+                return true;
+            case 'u':
+            case 'U':
+                game.undo();
+                return true;
+            case 'r':
+            case 'R':
+                game.redo();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * a random script, for the checks that play levels the way a player
+     * would. A command is a move three times out of four and an undo or a
+     * redo otherwise.
+     *
+     * @param random draws the commands
+     * @param length the number of commands
+     * @return the script
+     */
+    static String randomScript(SplittableRandom random, int length) {
+        StringBuilder script = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            script.append(RANDOM_COMMANDS.charAt(
+                    random.nextInt(RANDOM_COMMANDS.length())));
+        }
+        return script.toString();
+    }
+
+    /**
+     * replay every session, on its level or on every level.
+     *
+     * @param sessionList the sessions
+     * @throws IOException if a level can not be read
+     */
+    void runAll(List<Session> sessionList) throws IOException {
+        for (Session session : sessionList) {
+            if (session.level >= 0) {
+                run(session.level, session.moves);
+            } else {
+                for (int level = 0; level < levels.size(); level++) {
+                    run(level, session.moves);
+                }
+            }
+        }
+    }
+
+    /**
+     * expand the level argument into levels.
+     *
+     * @param arg a level file, a directory of level files or a pack
+     * @return the levels, in order
+     * @throws IOException if a pack can not be opened
+     */
+    static List<LevelRef> levelsOf(String arg) throws IOException {
+        List<LevelRef> levels = new ArrayList<LevelRef>();
+        File file = new File(arg);
+        if (LevelPack.isPack(arg)) {
+            LevelPack pack = new LevelPack(arg);
+            for (int i = 0; i < pack.size(); i++) {
+                LevelRef ref = new LevelRef();
+                ref.name = arg + "#" + i;
+                ref.pack = pack;
+                ref.index = i;
+                levels.add(ref);
+            }
+        } else if (file.isDirectory()) {
+            File[] subfiles = file.listFiles(File::isFile);
+            Arrays.sort(subfiles);
+            for (File subfile : subfiles) {
+                LevelRef ref = new LevelRef();
+                ref.name = subfile.toString();
+                ref.file = subfile.toString();
+                levels.add(ref);
+            }
+        } else {
+            LevelRef ref = new LevelRef();
+            ref.name = arg;
+            ref.file = arg;
+            levels.add(ref);
+        }
+        return levels;
+    }
+
+    /**
+     * read the script argument into sessions.
+     *
+     * @param arg    a script, or a file of one session per line
+     * @param levels the number of levels, to check the level numbers
+     * @return the sessions, in order
+     * @throws IOException if the file can not be read or a level number is
+     * out of range
+     */
+    static List<Session> sessionsOf(String arg, int levels)
+            throws IOException {
+        List<Session> sessionList = new ArrayList<Session>();
+        if (!new File(arg).isFile()) {
+            sessionList.add(new Session(-1, arg));
+            return sessionList;
+        }
+        try (BufferedReader in = new BufferedReader(new FileReader(arg))) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int digits = 0;
+                while (digits < line.length()
+                        && Character.isDigit(line.charAt(digits))) {
+                    digits = digits + 1;
+                }
+                int level = -1;
+                if (digits > 0) {
+                    level = Integer.parseInt(line.substring(0, digits));
+                    if (level >= levels) {
+                        throw new IOException("no level " + level + " for "
+                                + "session " + line);
+                    }
+                }
+                sessionList.add(new Session(level, line.substring(digits)));
+            }
+        }
+        return sessionList;
+    }
+
+    /**
+     * replay the scripts named on the command line and print the totals.
+     *
+     * @param args see USAGE
+     * @throws IOException if a level or a script file can not be read
+     */
+    public static void main(String[] args) throws IOException {
+        boolean quiet = false;
+        boolean boards = false;
+        boolean metrics = false;
+        int next = 0;
+        while (next < args.length && args[next].startsWith("-")) {
+            if (args[next].equals("-q")) {
+                quiet = true;
+            } else if (args[next].equals("-b")) {
+                boards = true;
+            } else if (args[next].equals("-m")) {
+                metrics = true;
+            } else {
+                System.out.print(USAGE);
+                return;
+            }
+            next = next + 1;
+        }
+        if (args.length - next != 2) {
+            System.out.print(USAGE);
+            return;
+        }
+        List<LevelRef> levels = levelsOf(args[next]);
+        List<Session> sessionList = sessionsOf(args[next + 1],
+                levels.size());
+        BatchRunner runner = new BatchRunner(levels, quiet, boards);
+        if (metrics) {
+            // timing every move costs about half the throughput
+            EngineMetrics.start();
+        }
+        long begin = System.nanoTime();
+        runner.runAll(sessionList);
+        double seconds = (System.nanoTime() - begin) / NANOS;
+        System.out.printf("%d sessions on %d levels: %d passed, %d failed, "
+                + "%d moves in %.3f s (%.0f moves/s)\n", runner.sessions,
+                levels.size(), runner.passed,
+                runner.sessions - runner.passed, runner.moves, seconds,
+                runner.moves / seconds);
+        if (metrics) {
+            System.out.print(EngineMetrics.GLOBAL.getText());
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * File header for CanvasBoardRenderer.java
+ * Description: Draws the board of a level into one Canvas instead of
+ * creating a Shape node for every tile.
+ * name: Yuanhao Zhu
+ */
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * Class header: CanvasBoardRenderer
+ * Draws obstacles, zappers and trails with the same colors and
+ * proportions as the shapes of GuiStreamline, but as pixels of one Canvas
+ * node. The whole board is drawn once when a level is loaded; after that
+ * only the tiles a move or an undo changed are cleared and drawn again.
+ * A cell is cleared as a whole before it is drawn, so the shapes are sized
+ * from the shorter side of a cell and never reach into the cells next to
+ * it, which would lose slices of them when those cells are drawn again.
+ * The player and the goal stay nodes of their own on top of the canvas.
+ */
+public class CanvasBoardRenderer {
+    // the zapper triangle reaches this far past its center, times its size
+    static final double LONG_VERT_MULT = 0.5774;
+    // the zapper triangle base is this far behind its center, times its size
+    static final double SHORT_VERT_MULT = 0.2887;
+    // the number of corners of a zapper triangle
+    static final int TRIANGLE_POINTS = 3;
+    // half of a cell or a shape
+    static final double HALF = 0.5;
+
+    Canvas canvas; // the node the board is drawn into
+    GraphicsContext gc; // draws into the canvas
+    int boardHeight; // the number of rows drawn
+    int boardWidth; // the number of columns drawn
+    double cellWidth; // the distance between two columns in pixels
+    double cellHeight; // the distance between two rows in pixels
+    double squareSize; // the shapes are sized from this, a cell fits it
+    double[] xPoints; // the x of the corners of a triangle, reused
+    double[] yPoints; // the y of the corners of a triangle, reused
+
+    /**
+     * create a renderer with an empty canvas.
+     */
+    public CanvasBoardRenderer() {
+        this.canvas = new Canvas();
+        this.gc = canvas.getGraphicsContext2D();
+        this.xPoints = new double[TRIANGLE_POINTS];
+        this.yPoints = new double[TRIANGLE_POINTS];
+    }
+
+    /**
+     * getter for the canvas node to put into the scene.
+     *
+     * @return the canvas
+     */
+    Canvas getCanvas() {
+        return canvas;
+    }
+
+    /**
+     * size the canvas to the scene and draw every tile of the board.
+     *
+     * @param state       the board to draw
+     * @param sceneWidth  the width of the scene
+     * @param sceneHeight the height of the scene
+     */
+    void draw(GameState state, double sceneWidth, double sceneHeight) {
+        this.boardHeight = state.getHeight();
+        this.boardWidth = state.getWidth();
+        this.cellWidth = (sceneWidth - 1) / boardWidth;
+        this.cellHeight = (sceneHeight - 1) / boardHeight;
+        this.squareSize = Math.min(cellWidth, cellHeight);
+        canvas.setWidth(sceneWidth);
+        canvas.setHeight(sceneHeight);
+        gc.clearRect(0, 0, sceneWidth, sceneHeight);
+        for (int i = 0; i < boardHeight; i++) {
+            for (int j = 0; j < boardWidth; j++) {
+                paintTile(i, j, state.getTile(i, j));
+            }
+        }
+    }
+
+    /**
+     * draw one tile again after it changed.
+     *
+     * @param row  the row of the tile
+     * @param col  the column of the tile
+     * @param tile the char now on the tile
+     */
+    void drawTile(int row, int col, char tile) {
+        gc.clearRect(col * cellWidth, row * cellHeight, cellWidth,
+                cellHeight);
+        paintTile(row, col, tile);
+    }
+
+    /**
+     * paint a tile on a cleared cell, the same way the shapes look.
+     *
+     * @param row  the row of the tile
+     * @param col  the column of the tile
+     * @param tile the char of the tile
+     */
+    private void paintTile(int row, int col, char tile) {
+        double x = (col + HALF) * cellWidth;
+        double y = (row + HALF) * cellHeight;
+        switch (tile) {
+            case GameState.OBSTACLE_CHAR: {
+                double size = squareSize * GuiStreamline.SQUARE_FRACTION;
+                double arc = size * RoundedSquare.DEFAULT_ARC_FRACTION;
+                gc.setFill(GuiStreamline.OBSTACLE_COLOR);
+                gc.fillRoundRect(x - size * HALF, y - size * HALF, size,
+                        size, arc, arc);
+                break;
+            }
+            case GameState.TRAIL_CHAR: {
+                double radius = squareSize
+                        * GuiStreamline.TRAIL_RADIUS_FRACTION;
+                gc.setFill(GuiStreamline.TRAIL_COLOR);
+                gc.fillOval(x - radius, y - radius, 2 * radius, 2 * radius);
+                break;
+            }
+            case GameState.UP_ZAP_CHAR:
+            case GameState.DOWN_ZAP_CHAR:
+            case GameState.LEFT_ZAP_CHAR:
+            case GameState.RIGHT_ZAP_CHAR:
+                paintZapper(x, y, GameState.zapperDirection(tile));
+                break;
+            default:
+                // spaces, the player and the goal leave the cell empty
+                break;
+        }
+    }
+
+    /**
+     * paint a zapper triangle pointing in its direction.
+     *
+     * @param x         the center of the cell
+     * @param y         the center of the cell
+     * @param direction where the zapper points
+     */
+    private void paintZapper(double x, double y, Direction direction) {
+        double size = squareSize * GuiStreamline.TRIANGLE_FRACTION;
+        double dx = 0;
+        double dy = 0;
+        switch (direction) {
+            case UP:
+                dy = -1;
+                break;
+            case DOWN:
+                dy = 1;
+                break;
+            case LEFT:
+                dx = -1;
+                break;
+            default:
+                dx = 1;
+                break;
+        }
+        double tip = size * LONG_VERT_MULT;
+        double back = size * SHORT_VERT_MULT;
+        double half = size * HALF;
+        // the tip in front, the two other corners behind and to the sides
+        xPoints[0] = x + dx * tip;
+        yPoints[0] = y + dy * tip;
+        xPoints[1] = x - dx * back - dy * half;
+        yPoints[1] = y - dy * back + dx * half;
+        xPoints[2] = x - dx * back + dy * half;
+        yPoints[2] = y - dy * back - dx * half;
+        gc.setFill(GuiStreamline.ZAPPER_COLOR);
+        gc.fillPolygon(xPoints, yPoints, TRIANGLE_POINTS);
+    }
+}
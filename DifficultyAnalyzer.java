@@ -0,0 +1,346 @@
+/**
+ * File header for DifficultyAnalyzer.java
+ * Description: Measures how hard every level of a directory or pack is,
+ * several levels at a time, and writes the numbers as CSV.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class header: DifficultyAnalyzer
+ * Every level is explored completely with StreamlineSolver.explore(), and
+ * its graph of states gives
+ *   optimal_moves     the moves of a shortest solution, empty if none
+ *   solutions         the different sequences of moves that pass the level,
+ *                     moves that change nothing left out
+ *   branching_factor  the mean number of moves that change the board, over
+ *                     the states that have not passed
+ *   dead_state_ratio  the fraction of the states the level can no longer be
+ *                     passed from
+ *   zappers_used      the zappers the shortest solution goes through, out
+ *                     of the zappers of the level
+ * A move always turns at least one more tile into trail, so the states form
+ * a graph without cycles, ordered by their number of changed tiles, and
+ * the solutions of a state are the sum of those of the states its moves
+ * reach, counted from the states with the most changed tiles down. Levels
+ * are read the way Streamline.loadFromFile reads them, through LevelFormat
+ * or LevelPack, and analyzed on a fixed pool of threads. Each thread keeps
+ * one Worker, whose solver and arrays are reused for every level it is
+ * given. A line of CSV is written and flushed as soon as its level is
+ * done, so the lines are in the order the levels finish; the index column
+ * gives the order of the levels. A level that reaches the state limit is
+ * marked incomplete and only its states and optimal moves are written.
+ */
+public class DifficultyAnalyzer {
+    static final String USAGE =
+        "Usage: java DifficultyAnalyzer [-t threads] [-m max states] " +
+        "<level file, directory or pack> [csv file]\n" +
+        "  -t  the number of levels analyzed at a time, the number of " +
+        "cores by default\n" +
+        "  -m  the most states of one level, " +
+        StreamlineSolver.DEFAULT_MAX_STATES + " by default\n" +
+        "  the CSV goes to the standard output if no file is given\n";
+    // the first line of the CSV
+    static final String HEADER = "index,level,width,height,states,complete,"
+            + "optimal_moves,solutions,branching_factor,dead_state_ratio,"
+            + "zappers,zappers_used,millis";
+    // nanoseconds in one millisecond
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /**
+     * What one thread keeps from level to level.
+     */
+    static class Worker {
+        StreamlineSolver solver; // explores the levels, null before the first
+        int[] order; // the states by falling number of changed tiles
+        int[] changed; // the number of changed tiles of every state
+        long[] ways; // the solutions of every state
+
+        /**
+         * make sure the arrays hold the given number of states.
+         *
+         * @param states the number of states
+         */
+        void ensureCapacity(int states) {
+            if (order == null || order.length < states) {
+                order = new int[states];
+                changed = new int[states];
+                ways = new long[states];
+            }
+        }
+    }
+
+    List<BatchRunner.LevelRef> levels; // the levels to analyze
+    int maxStates; // the most states of one level
+    PrintWriter out; // the CSV
+    ThreadLocal<Worker> workers; // the worker of every thread
+
+    /**
+     * create an analyzer.
+     *
+     * @param levels    the levels to analyze
+     * @param maxStates the most states of one level
+     * @param out       the CSV, the header is written by run()
+     */
+    public DifficultyAnalyzer(List<BatchRunner.LevelRef> levels,
+                              int maxStates, PrintWriter out) {
+        this.levels = levels;
+        this.maxStates = maxStates;
+        this.out = out;
+        this.workers = ThreadLocal.withInitial(Worker::new);
+    }
+
+    /**
+     * analyze every level on the given number of threads and wait for
+     * them to finish.
+     *
+     * @param threads the number of levels analyzed at a time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void run(int threads) throws InterruptedException {
+        line(HEADER);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < levels.size(); i++) {
+            int index = i;
+            executor.execute(() -> analyze(index));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * analyze one level and write its line, on a pool thread.
+     *
+     * @param index the number of the level
+     */
+    void analyze(int index) {
+        BatchRunner.LevelRef ref = levels.get(index);
+        GameState level;
+        try {
+            level = ref.load();
+        } catch (IOException e) {
+            System.err.println("Could not read " + ref.name + ": " + e);
+            return;
+        }
+        long begin = System.nanoTime();
+        Worker worker = workers.get();
+        if (worker.solver == null) {
+            worker.solver = new StreamlineSolver(level, maxStates);
+        } else {
+            worker.solver.setLevel(level);
+        }
+        StreamlineSolver solver = worker.solver;
+        boolean complete = solver.explore();
+        int states = solver.stateCount;
+        SolverEngine engine = solver.engine;
+
+        // the first passing state found is the closest to the start
+        int first = -1;
+        for (int id = 0; id < states && first < 0; id++) {
+            if (engine.isPassed(solver.player[id])) {
+                first = id;
+            }
+        }
+        List<Direction> solution = first < 0 ? null : solver.path(first);
+
+        StringBuilder line = new StringBuilder();
+        line.append(index).append(',').append(csv(ref.name)).append(',')
+                .append(level.width).append(',').append(level.height)
+                .append(',').append(states).append(',').append(complete)
+                .append(',');
+        line.append(solution == null ? "" : solution.size()).append(',');
+        if (complete) {
+            countSolutions(worker, solver);
+            long expanded = 0;
+            long moves = 0;
+            long dead = 0;
+            for (int id = 0; id < states; id++) {
+                if (engine.isPassed(solver.player[id])) {
+                    continue;
+                }
+                expanded = expanded + 1;
+                for (int d = 0; d < StreamlineSolver.DIRECTIONS.length;
+                     d++) {
+                    if (solver.children[id * StreamlineSolver.DIRECTIONS
+                            .length + d] >= 0) {
+                        moves = moves + 1;
+                    }
+                }
+                if (worker.ways[id] == 0) {
+                    dead = dead + 1;
+                }
+            }
+            line.append(worker.ways[0]).append(',');
+            line.append(String.format(Locale.ROOT, "%.3f,%.4f,",
+                    expanded == 0 ? 0.0 : (double) moves / expanded,
+                    (double) dead / states));
+        } else {
+            line.append(",,,");
+        }
+        line.append(zappers(level)).append(',');
+        line.append(solution == null ? "" : zappersUsed(level, solution));
+        line.append(String.format(Locale.ROOT, ",%.1f",
+                (System.nanoTime() - begin) / NANOS_PER_MILLI));
+        line(line.toString());
+    }
+
+    /**
+     * count the solutions of every state of a complete exploration, from
+     * the states with the most changed tiles down, into worker.ways.
+     *
+     * @param worker the worker holding the arrays
+     * @param solver the solver that explored the level
+     */
+    static void countSolutions(Worker worker, StreamlineSolver solver) {
+        int states = solver.stateCount;
+        int words = solver.words;
+        worker.ensureCapacity(states);
+        int[] changed = worker.changed;
+        int most = 0;
+        for (int id = 0; id < states; id++) {
+            int count = 0;
+            for (int w = id * words; w < (id + 1) * words; w++) {
+                count = count + Long.bitCount(solver.bits[w]);
+            }
+            changed[id] = count;
+            most = Math.max(most, count);
+        }
+        // counting sort, the most changed tiles first
+        int[] start = new int[most + 2];
+        for (int id = 0; id < states; id++) {
+            start[most - changed[id] + 1]++;
+        }
+        for (int c = 1; c < start.length; c++) {
+            start[c] = start[c] + start[c - 1];
+        }
+        int[] order = worker.order;
+        for (int id = 0; id < states; id++) {
+            order[start[most - changed[id]]++] = id;
+        }
+        int directions = StreamlineSolver.DIRECTIONS.length;
+        long[] ways = worker.ways;
+        for (int i = 0; i < states; i++) {
+            int id = order[i];
+            if (solver.engine.isPassed(solver.player[id])) {
+                ways[id] = 1;
+                continue;
+            }
+            long sum = 0;
+            for (int d = 0; d < directions; d++) {
+                int child = solver.children[id * directions + d];
+                if (child >= 0) {
+                    // saturate instead of wrapping around
+                    sum = sum + ways[child];
+                    if (sum < 0) {
+                        sum = Long.MAX_VALUE;
+                    }
+                }
+            }
+            ways[id] = sum;
+        }
+    }
+
+    /**
+     * the number of zappers of a level.
+     *
+     * @param level the level
+     * @return the number of zapper tiles
+     */
+    static int zappers(GameState level) {
+        int count = 0;
+        for (byte tile : level.tiles) {
+            if (GameState.zapperDirection((char) tile) != null) {
+                count = count + 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * the number of zappers a solution goes through.
+     *
+     * @param level    the level
+     * @param solution the moves
+     * @return the zappers gone through by all of the moves
+     */
+    static int zappersUsed(GameState level, List<Direction> solution) {
+        GameState walk = new GameState(level);
+        int used = 0;
+        for (Direction direction : solution) {
+            walk.move(direction);
+            used = used + walk.zapperChain;
+        }
+        return used;
+    }
+
+    /**
+     * quote a CSV field if it needs it.
+     *
+     * @param field the field
+     * @return the field as it goes in the CSV
+     */
+    static String csv(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * write a line of the CSV and flush it, from any thread.
+     *
+     * @param line the line
+     */
+    synchronized void line(String line) {
+        out.println(line);
+        out.flush();
+    }
+
+    /**
+     * analyze the levels named on the command line.
+     *
+     * @param args see USAGE
+     * @throws IOException if the levels or the CSV can not be opened
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxStates = StreamlineSolver.DEFAULT_MAX_STATES;
+        int next = 0;
+        while (next + 1 < args.length && args[next].startsWith("-")) {
+            if (args[next].equals("-t")) {
+                threads = Integer.parseInt(args[next + 1]);
+            } else if (args[next].equals("-m")) {
+                maxStates = Integer.parseInt(args[next + 1]);
+            } else {
+                System.out.print(USAGE);
+                return;
+            }
+            next = next + 2;
+        }
+        if (args.length - next < 1 || args.length - next > 2
+                || threads < 1 || maxStates < 1) {
+            System.out.print(USAGE);
+            return;
+        }
+        List<BatchRunner.LevelRef> levels = BatchRunner.levelsOf(args[next]);
+        PrintWriter out = args.length - next == 2
+                ? new PrintWriter(new FileWriter(args[next + 1]))
+                : new PrintWriter(System.out);
+        long begin = System.nanoTime();
+        new DifficultyAnalyzer(levels, maxStates, out).run(threads);
+        out.close();
+        System.err.printf("%d levels on %d threads in %.1f ms\n",
+                levels.size(), threads,
+                (System.nanoTime() - begin) / NANOS_PER_MILLI);
+    }
+}
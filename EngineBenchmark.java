@@ -0,0 +1,269 @@
+/**
+ * File header for EngineBenchmark.java
+ * Description: Measures the throughput and the allocation of the hot paths
+ * of the game engine over a range of board sizes and zapper densities.
+ * name: Yuanhao Zhu
+ */
+
+import java.lang.management.ManagementFactory;
+import java.util.SplittableRandom;
+
+/**
+ * Class header: EngineBenchmark
+ * A small benchmark harness that needs nothing but the JDK. Every benchmark
+ * runs on a fresh board for a warmup period and then a measured period, in
+ * batches of operations so the clock is read rarely. Throughput is reported
+ * in operations per second, and allocation in bytes per operation, read
+ * from the allocation counter of the running thread (the counter the GC
+ * profiler of JMH reads as well). Results go to a blackhole field so the
+ * JIT can not drop the work.
+ */
+public class EngineBenchmark {
+    // the board sizes, height and width, from sample_levels/level1 up
+    static final int[][] SIZES = {
+        {6, 5}, {100, 100}, {1000, 1000}, {2000, 2000}
+    };
+    // the fraction of the tiles that are zappers
+    static final double[] ZAPPER_DENSITIES = {0, 0.05, 0.2};
+    // the fraction of the tiles that are obstacles
+    static final double OBSTACLE_DENSITY = 0.05;
+    // the seed of every board, so runs compare
+    static final long SEED = 42;
+    // the default warmup and measurement time of one benchmark
+    static final double DEFAULT_SECONDS = 1;
+    // nanoseconds in one second
+    private static final double NANOS = 1e9;
+    // a batch of operations grows until it takes this many nanoseconds
+    private static final long BATCH_NANOS = 1000000;
+
+    static final String USAGE =
+        "Usage: java EngineBenchmark [name filter] [seconds]\n" +
+        "benchmarks: move copy rotate toString equals recordAndMoveUndo " +
+        "undoRedo\n";
+
+    // results of the benchmarked operations end up here
+    static volatile long blackhole;
+
+    /**
+     * One operation to benchmark on a prepared board.
+     */
+    interface Operation {
+        /**
+         * run the operation once.
+         *
+         * @return a value depending on the work, for the blackhole
+         */
+        long run();
+    }
+
+    /**
+     * One line of the report.
+     */
+    static class Result {
+        String name; // the benchmark
+        int height; // the height of the board
+        int width; // the width of the board
+        double zappers; // the zapper density of the board
+        double opsPerSecond; // the throughput
+        double bytesPerOp; // the allocation
+
+        /**
+         * create a result line.
+         *
+         * @param name         the benchmark
+         * @param height       the height of the board
+         * @param width        the width of the board
+         * @param zappers      the zapper density of the board
+         * @param opsPerSecond the throughput
+         * @param bytesPerOp   the allocation
+         */
+        Result(String name, int height, int width, double zappers,
+               double opsPerSecond, double bytesPerOp) {
+            this.name = name;
+            this.height = height;
+            this.width = width;
+            this.zappers = zappers;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    /**
+     * build a benchmark board, the player bottom left and the goal top right.
+     *
+     * @param height  the height of the board
+     * @param width   the width of the board
+     * @param zappers the fraction of the tiles that are zappers
+     * @return the board
+     */
+    static GameState board(int height, int width, double zappers) {
+        GameState state = new GameState(height, width, height - 1, 0, 0,
+                width - 1);
+        int tiles = height * width;
+        state.addRandomTiles((int) (tiles * OBSTACLE_DENSITY),
+                (int) (tiles * zappers), new SplittableRandom(SEED));
+        return state;
+    }
+
+    /**
+     * build the operation of a benchmark on a board.
+     *
+     * @param name  the benchmark
+     * @param state the board, owned by the operation from now on
+     * @return the operation, null if there is no benchmark of that name
+     */
+    static Operation operation(String name, GameState state) {
+        switch (name) {
+            case "move": {
+                // move and undo through the journal so the board stays put
+                MoveJournal journal = new MoveJournal();
+                state.journal = journal;
+                Direction[] directions = Direction.values();
+                int[] next = {0};
+                return () -> {
+                    Direction d = directions[next[0] % directions.length];
+                    next[0] = next[0] + 1;
+                    journal.beginMove(state);
+                    state.move(d);
+                    journal.endMove();
+                    journal.undo(state);
+                    return state.playerCol;
+                };
+            }
+            case "copy":
+                return () -> new GameState(state).playerRow;
+            case "rotate":
+                return () -> {
+                    state.rotateCounterClockwise();
+                    return state.playerRow;
+                };
+            case "toString":
+                return () -> state.toString().length();
+            case "equals": {
+                GameState other = new GameState(state);
+                return () -> state.equals(other) ? 1 : 0;
+            }
+            case "recordAndMoveUndo": {
+                Streamline game = new Streamline(state);
+                Direction[] directions = Direction.values();
+                int[] next = {0};
+                return () -> {
+                    Direction d = directions[next[0] % directions.length];
+                    game.recordAndMove(d);
+                    next[0] = next[0] + 1;
+                    game.undo();
+                    return game.currentState.playerRow;
+                };
+            }
+            case "undoRedo": {
+                // redo makes the move again, so it costs what the move
+                // does, compare with recordAndMoveUndo
+                Streamline game = new Streamline(state);
+                for (Direction d : Direction.values()) {
+                    if (game.previousMoves.frameCount == 0) {
+                        game.recordAndMove(d);
+                    }
+                }
+                return () -> {
+                    game.undo();
+                    game.redo();
+                    return game.currentState.playerRow;
+                };
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * run an operation until the given time has passed.
+     *
+     * @param op      the operation
+     * @param seconds how long to run
+     * @return the number of operations, the nanoseconds taken and the bytes
+     * allocated
+     */
+    static long[] runFor(Operation op, double seconds) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)
+                        ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long sink = 0;
+        long ops = 0;
+        long batch = 1;
+        long limit = (long) (seconds * NANOS);
+        long bytesBefore = threads.getThreadAllocatedBytes(thread);
+        long begin = System.nanoTime();
+        long elapsed = 0;
+        while (elapsed < limit) {
+            long batchBegin = System.nanoTime();
+            for (long i = 0; i < batch; i++) {
+                sink = sink + op.run();
+            }
+            ops = ops + batch;
+            long now = System.nanoTime();
+            elapsed = now - begin;
+            // grow the batch while it takes less than a millisecond
+            if (now - batchBegin < BATCH_NANOS) {
+                batch = batch * 2;
+            }
+        }
+        long bytes = threads.getThreadAllocatedBytes(thread) - bytesBefore;
+        blackhole = sink;
+        return new long[]{ops, elapsed, bytes};
+    }
+
+    /**
+     * run one benchmark on one board, a warmup and then a measurement.
+     *
+     * @param name    the benchmark
+     * @param height  the height of the board
+     * @param width   the width of the board
+     * @param zappers the zapper density of the board
+     * @param seconds the warmup and the measurement time
+     * @return the result line
+     */
+    static Result measure(String name, int height, int width, double zappers,
+                          double seconds) {
+        Operation op = operation(name, board(height, width, zappers));
+        runFor(op, seconds);
+        long[] run = runFor(op, seconds);
+        return new Result(name, height, width, zappers,
+                run[0] * NANOS / run[1], (double) run[2] / run[0]);
+    }
+
+    /**
+     * run every benchmark whose name contains the filter and print a table.
+     *
+     * @param args an optional name filter and an optional time in seconds
+     */
+    public static void main(String[] args) {
+        if (args.length > 2) {
+            System.out.print(USAGE);
+            return;
+        }
+        String filter = args.length > 0 ? args[0] : "";
+        double seconds = args.length > 1 ? Double.parseDouble(args[1])
+                : DEFAULT_SECONDS;
+        String[] names = {
+            "move", "copy", "rotate", "toString", "equals",
+            "recordAndMoveUndo", "undoRedo"
+        };
+        System.out.printf("%-18s %11s %8s %16s %14s\n", "benchmark", "board",
+                "zappers", "ops/s", "bytes/op");
+        for (String name : names) {
+            if (!name.contains(filter)) {
+                continue;
+            }
+            for (int[] size : SIZES) {
+                for (double zappers : ZAPPER_DENSITIES) {
+                    Result r = measure(name, size[0], size[1], zappers,
+                            seconds);
+                    System.out.printf("%-18s %11s %8.2f %16.1f %14.1f\n",
+                            r.name, r.height + "x" + r.width, r.zappers,
+                            r.opsPerSecond, r.bytesPerOp);
+                }
+            }
+        }
+    }
+}
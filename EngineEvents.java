@@ -0,0 +1,177 @@
+/**
+ * File header for EngineEvents.java
+ * Description: Flight recorder events around the phases of the game that a
+ * key press can wait on, so a recording shows where the time went.
+ * name: Yuanhao Zhu
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Class header: EngineEvents
+ * Every event is used the same way: create it, begin() it before the
+ * phase, and after the phase fill in its fields and commit() it only if
+ * shouldCommit() says so. When no recording asks for the event
+ * shouldCommit() is false, the fields are never filled and the JIT drops
+ * the event object, so the events cost nothing until a recording such as
+ *   java -XX:StartFlightRecording=filename=game.jfr GuiStreamline
+ * is started. The events are in the Streamline category of the recording.
+ * Creating the event still costs a little when the JIT keeps it, which
+ * shows on the millions of moves of BatchRunner, so the move and undo
+ * events are only created while recording says a recording is running.
+ */
+public class EngineEvents {
+    // whether a flight recording is running, kept up to date by a listener
+    static volatile boolean recording;
+
+    static {
+        // called back only once the recorder is in use, never starts it
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                update(recorder);
+            }
+
+            @Override
+            public void recordingStateChanged(Recording changed) {
+                update(FlightRecorder.getFlightRecorder());
+            }
+        });
+    }
+
+    /**
+     * set recording from the recordings of the recorder.
+     *
+     * @param recorder the flight recorder
+     */
+    private static void update(FlightRecorder recorder) {
+        boolean running = false;
+        for (Recording r : recorder.getRecordings()) {
+            if (r.getState() == RecordingState.RUNNING) {
+                running = true;
+            }
+        }
+        recording = running;
+    }
+
+    /**
+     * Reading a level file in Streamline.loadFromFile.
+     */
+    @Name("streamline.LevelLoad")
+    @Label("Level Load")
+    @Category({"Streamline", "Engine"})
+    static class LevelLoadEvent extends Event {
+        @Label("File")
+        String file; // the level file
+
+        @Label("Board Width")
+        int boardWidth; // the columns of the board
+
+        @Label("Board Height")
+        int boardHeight; // the rows of the board
+    }
+
+    /**
+     * One move through Streamline.recordAndMove.
+     */
+    @Name("streamline.Move")
+    @Label("Move")
+    @Category({"Streamline", "Engine"})
+    static class MoveEvent extends Event {
+        @Label("Direction")
+        String direction; // the name of the Direction
+
+        @Label("Board Width")
+        int boardWidth; // the columns of the board
+
+        @Label("Board Height")
+        int boardHeight; // the rows of the board
+
+        @Label("Cells Changed")
+        @Description("Tiles the move wrote, as kept to undo it")
+        int cellsChanged; // the tiles the move wrote
+
+        @Label("Slide Length")
+        int slideLength; // the tiles slid over
+
+        @Label("Zapper Chain")
+        int zapperChain; // the zappers gone through
+    }
+
+    /**
+     * One undo through Streamline.undo.
+     */
+    @Name("streamline.Undo")
+    @Label("Undo")
+    @Category({"Streamline", "Engine"})
+    static class UndoEvent extends Event {
+        @Label("Undone")
+        @Description("False if there was no move to undo")
+        boolean undone; // whether there was a move to undo
+
+        @Label("Cells Restored")
+        int cellsRestored; // the tiles written back
+    }
+
+    /**
+     * Writing a level in LevelFormat.save.
+     */
+    @Name("streamline.Save")
+    @Label("Save")
+    @Category({"Streamline", "Engine"})
+    static class SaveEvent extends Event {
+        @Label("File")
+        String file; // the file written
+
+        @Label("Binary")
+        boolean binary; // whether the binary format was used
+
+        @Label("Board Width")
+        int boardWidth; // the columns of the board
+
+        @Label("Board Height")
+        int boardHeight; // the rows of the board
+    }
+
+    /**
+     * Building the shapes of a board in GuiStreamline.resetGrid.
+     */
+    @Name("streamline.ResetGrid")
+    @Label("Grid Rebuild")
+    @Category({"Streamline", "Rendering"})
+    static class ResetGridEvent extends Event {
+        @Label("Renderer")
+        String renderer; // nodes, canvas or viewport
+
+        @Label("Board Width")
+        int boardWidth; // the columns of the board
+
+        @Label("Board Height")
+        int boardHeight; // the rows of the board
+    }
+
+    /**
+     * The work on the FX thread between two levels in
+     * GuiStreamline.onLevelFinished.
+     */
+    @Name("streamline.LevelTransition")
+    @Label("Level Transition")
+    @Category({"Streamline", "Rendering"})
+    static class LevelTransitionEvent extends Event {
+        @Label("Phase")
+        @Description("animation: setting up the scale transition, switch: "
+                + "closing the level and taking the next one")
+        String phase; // animation or switch
+
+        @Label("Levels Left")
+        int levelsLeft; // the levels not handed out yet
+    }
+}
@@ -0,0 +1,417 @@
+/**
+ * File header for EngineMetrics.java
+ * Description: Counts and times what the game does, with histograms that
+ * can be recorded from any thread without a lock, and shows them as text,
+ * as JSON and through JMX.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Class header: EngineMetrics
+ * GLOBAL holds a histogram for every phase timed, in nanoseconds, and for
+ * the sizes that explain them: tiles slid over and zappers gone through by
+ * a move, and bytes allocated by a load or a save. Recording a value is a
+ * few atomic adds on counters no reader waits for. Nothing is timed or
+ * recorded before start() sets enabled, so the headless tools that never
+ * start the metrics, like BatchRunner without -m, only pay for reading the
+ * flag. The undo history is kept as two gauges, its moves and its cells.
+ * start() registers GLOBAL as the MBean streamline:type=EngineMetrics and,
+ * if the system property METRICS_PROPERTY gives a number of seconds, prints
+ * a dump to System.err that often, in JSON if JSON_PROPERTY is true.
+ */
+public class EngineMetrics implements EngineMetricsMBean {
+    // the number of seconds between dumps, no dumps if not set
+    static final String METRICS_PROPERTY = "streamline.metrics";
+    // set to true to dump in JSON instead of text
+    static final String JSON_PROPERTY = "streamline.metrics.json";
+    // the name GLOBAL is registered under
+    static final String MBEAN_NAME = "streamline:type=EngineMetrics";
+    // nanoseconds in one microsecond
+    static final double NANOS_PER_MICRO = 1e3;
+    // the metrics of the game
+    static final EngineMetrics GLOBAL = new EngineMetrics();
+    // whether the game times and records into GLOBAL, set by start()
+    static volatile boolean enabled;
+
+    /**
+     * A histogram of non-negative values in the style of HdrHistogram:
+     * values below SUB_BUCKETS get a bucket each, and every power of two
+     * above that is split into SUB_BUCKETS buckets, so a value is known to
+     * within an eighth of it with a few hundred buckets for all of long.
+     */
+    static class Histogram {
+        // the bits of a value below its highest bit that pick its bucket
+        static final int SUB_BITS = 3;
+        // the buckets of every power of two
+        static final int SUB_BUCKETS = 1 << SUB_BITS;
+        // the buckets of every long
+        static final int BUCKETS = (Long.SIZE - SUB_BITS + 1) * SUB_BUCKETS;
+
+        AtomicLongArray counts; // the number of values in every bucket
+        LongAdder sum; // the sum of the values
+        AtomicLong max; // the largest value
+
+        /**
+         * create an empty histogram.
+         */
+        Histogram() {
+            this.counts = new AtomicLongArray(BUCKETS);
+            this.sum = new LongAdder();
+            this.max = new AtomicLong();
+        }
+
+        /**
+         * record a value, from any thread.
+         *
+         * @param value the value, counted as 0 if negative
+         */
+        void record(long value) {
+            long v = Math.max(0, value);
+            counts.getAndIncrement(bucketOf(v));
+            sum.add(v);
+            long seen = max.get();
+            while (v > seen && !max.compareAndSet(seen, v)) {
+                seen = max.get();
+            }
+        }
+
+        /**
+         * the bucket of a value.
+         *
+         * @param value the value, not negative
+         * @return the index of its bucket
+         */
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS))
+                    & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * the largest value of a bucket.
+         *
+         * @param bucket the index of the bucket
+         * @return the largest value that goes in it
+         */
+        static long highestOf(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+            long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS)
+                    << (exponent - SUB_BITS);
+            return lowest + (1L << (exponent - SUB_BITS)) - 1;
+        }
+
+        /**
+         * the value below which the given fraction of the values are.
+         *
+         * @param fraction the fraction, from 0 to 1
+         * @return the value, 0 if nothing was recorded
+         */
+        long percentile(double fraction) {
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total = total + snapshot[i];
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen = seen + snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(highestOf(i), max.get());
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * the number of values recorded.
+         *
+         * @return the sum of the bucket counts
+         */
+        long count() {
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                total = total + counts.get(i);
+            }
+            return total;
+        }
+
+        /**
+         * the mean of the values.
+         *
+         * @return the mean, 0 if nothing was recorded
+         */
+        double mean() {
+            long n = count();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        /**
+         * forget every value.
+         */
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            sum.reset();
+            max.set(0);
+        }
+    }
+
+    Map<String, Histogram> histograms; // every histogram, by name
+    Histogram move; // Streamline.recordAndMove, in nanoseconds
+    Histogram slide; // GameState.move alone, in nanoseconds
+    Histogram undo; // Streamline.undo, in nanoseconds
+    Histogram load; // Streamline.loadFromFile, in nanoseconds
+    Histogram save; // LevelFormat.save, in nanoseconds
+    Histogram trailColors; // GuiStreamline.updateTrailColors, nanoseconds
+    Histogram redraw; // showing a change set in the GUI, in nanoseconds
+    Histogram slideLength; // the tiles slid over by a move
+    Histogram zapperChain; // the zappers gone through by a move
+    Histogram loadBytes; // the bytes allocated by a load
+    Histogram saveBytes; // the bytes allocated by a save
+    AtomicLong historyMoves; // the moves that can be undone
+    AtomicLong historyCells; // the tiles kept to undo them
+    ScheduledExecutorService dumper; // prints the dumps, or null
+
+    /**
+     * create empty metrics.
+     */
+    EngineMetrics() {
+        this.histograms = new LinkedHashMap<String, Histogram>();
+        this.move = histogram("move");
+        this.slide = histogram("slide");
+        this.undo = histogram("undo");
+        this.load = histogram("load");
+        this.save = histogram("save");
+        this.trailColors = histogram("trailColors");
+        this.redraw = histogram("redraw");
+        this.slideLength = histogram("slideLength");
+        this.zapperChain = histogram("zapperChain");
+        this.loadBytes = histogram("loadBytes");
+        this.saveBytes = histogram("saveBytes");
+        this.historyMoves = new AtomicLong();
+        this.historyCells = new AtomicLong();
+    }
+
+    /**
+     * add a histogram to the dumps.
+     *
+     * @param name the name it is dumped under
+     * @return the histogram
+     */
+    private Histogram histogram(String name) {
+        Histogram histogram = new Histogram();
+        histograms.put(name, histogram);
+        return histogram;
+    }
+
+    /**
+     * the bytes the current thread has allocated so far, when the JVM can
+     * tell and the metrics are enabled.
+     *
+     * @return the bytes, or -1 if the JVM can not tell or nothing is
+     * recorded
+     */
+    static long allocatedBytes() {
+        if (!enabled) {
+            return -1;
+        }
+        java.lang.management.ThreadMXBean threads =
+                ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    /**
+     * record the bytes allocated since an earlier allocatedBytes(), if the
+     * JVM can tell.
+     *
+     * @param histogram the histogram
+     * @param before    what allocatedBytes() returned before
+     */
+    static void recordAllocated(Histogram histogram, long before) {
+        if (before >= 0) {
+            histogram.record(allocatedBytes() - before);
+        }
+    }
+
+    /**
+     * enable the metrics, register GLOBAL with JMX, and start the dumps if
+     * METRICS_PROPERTY is set. Does nothing the second time.
+     */
+    static synchronized void start() {
+        if (GLOBAL.dumper != null) {
+            return;
+        }
+        enabled = true;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(GLOBAL,
+                    new ObjectName(MBEAN_NAME));
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+        long seconds = Long.getLong(METRICS_PROPERTY, 0);
+        GLOBAL.dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (seconds > 0) {
+            boolean json = Boolean.getBoolean(JSON_PROPERTY);
+            PrintStream out = System.err;
+            GLOBAL.dumper.scheduleAtFixedRate(() -> out.print(
+                    json ? GLOBAL.getJson() + "\n" : GLOBAL.getText()),
+                    seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * getter for the number of moves made.
+     *
+     * @return the number of recordAndMove calls
+     */
+    public long getMoves() {
+        return move.count();
+    }
+
+    /**
+     * getter for the mean time of a move.
+     *
+     * @return the mean, in microseconds
+     */
+    public double getMoveMeanMicros() {
+        return move.mean() / NANOS_PER_MICRO;
+    }
+
+    /**
+     * getter for the time 99 in 100 moves are faster than.
+     *
+     * @return the time, in nanoseconds
+     */
+    public long getMoveP99Nanos() {
+        return move.percentile(0.99);
+    }
+
+    /**
+     * getter for the slowest move.
+     *
+     * @return the time, in nanoseconds
+     */
+    public long getMoveMaxNanos() {
+        return move.max.get();
+    }
+
+    /**
+     * getter for the number of undos.
+     *
+     * @return the number of undo calls
+     */
+    public long getUndos() {
+        return undo.count();
+    }
+
+    /**
+     * getter for the time 99 in 100 redraws are faster than.
+     *
+     * @return the time, in nanoseconds
+     */
+    public long getRedrawP99Nanos() {
+        return redraw.percentile(0.99);
+    }
+
+    /**
+     * getter for the moves that can be undone.
+     *
+     * @return the number of moves
+     */
+    public long getHistoryMoves() {
+        return historyMoves.get();
+    }
+
+    /**
+     * getter for the tiles kept to undo moves.
+     *
+     * @return the number of tiles
+     */
+    public long getHistoryCells() {
+        return historyCells.get();
+    }
+
+    /**
+     * every histogram as a line of text.
+     *
+     * @return the dump
+     */
+    public String getText() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram h = entry.getValue();
+            text.append(String.format(Locale.ROOT,
+                    "%-12s count=%d mean=%.1f p50=%d "
+                    + "p90=%d p99=%d max=%d\n", entry.getKey(),
+                    h.count(), h.mean(), h.percentile(0.5),
+                    h.percentile(0.9), h.percentile(0.99), h.max.get()));
+        }
+        text.append(String.format(Locale.ROOT,
+                "%-12s moves=%d cells=%d\n", "history",
+                historyMoves.get(), historyCells.get()));
+        return text.toString();
+    }
+
+    /**
+     * every histogram as one JSON object.
+     *
+     * @return the dump
+     */
+    public String getJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram h = entry.getValue();
+            json.append(String.format(Locale.ROOT,
+                    "\"%s\":{\"count\":%d,\"mean\":%.1f,"
+                    + "\"p50\":%d,\"p90\":%d,\"p99\":%d,\"max\":%d},",
+                    entry.getKey(), h.count(), h.mean(),
+                    h.percentile(0.5), h.percentile(0.9),
+                    h.percentile(0.99), h.max.get()));
+        }
+        json.append(String.format(Locale.ROOT,
+                "\"history\":{\"moves\":%d,\"cells\":%d}}",
+                historyMoves.get(), historyCells.get()));
+        return json.toString();
+    }
+
+    /**
+     * forget every value recorded.
+     */
+    public void reset() {
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * File header for EngineMetricsMBean.java
+ * Description: What JMX clients such as jconsole see of EngineMetrics.
+ * name: Yuanhao Zhu
+ */
+
+/**
+ * Class header: EngineMetricsMBean
+ * The management interface of EngineMetrics. Times are in the units their
+ * names say, and Text and Json are the same dumps as the periodic ones.
+ */
+public interface EngineMetricsMBean {
+    /**
+     * getter for the number of moves made.
+     *
+     * @return the number of recordAndMove calls
+     */
+    long getMoves();
+
+    /**
+     * getter for the mean time of a move.
+     *
+     * @return the mean, in microseconds
+     */
+    double getMoveMeanMicros();
+
+    /**
+     * getter for the time 99 in 100 moves are faster than.
+     *
+     * @return the time, in nanoseconds
+     */
+    long getMoveP99Nanos();
+
+    /**
+     * getter for the slowest move.
+     *
+     * @return the time, in nanoseconds
+     */
+    long getMoveMaxNanos();
+
+    /**
+     * getter for the number of undos.
+     *
+     * @return the number of undo calls
+     */
+    long getUndos();
+
+    /**
+     * getter for the time 99 in 100 redraws are faster than.
+     *
+     * @return the time, in nanoseconds
+     */
+    long getRedrawP99Nanos();
+
+    /**
+     * getter for the moves that can be undone.
+     *
+     * @return the number of moves
+     */
+    long getHistoryMoves();
+
+    /**
+     * getter for the tiles kept to undo moves.
+     *
+     * @return the number of tiles
+     */
+    long getHistoryCells();
+
+    /**
+     * every histogram as a line of text.
+     *
+     * @return the dump
+     */
+    String getText();
+
+    /**
+     * every histogram as one JSON object.
+     *
+     * @return the dump
+     */
+    String getJson();
+
+    /**
+     * forget every value recorded.
+     */
+    void reset();
+}
@@ -6,8 +6,6 @@
  * name: Yuanhao Zhu
  */
 
-import javax.swing.plaf.basic.BasicInternalFrameTitlePane;
-import java.awt.*;
 import java.util.*;
 
 /**
@@ -38,18 +36,63 @@ public class GameState {
     private static final int RANDOMNUMFOUR = 4;
     private static final int RANDOMCASETWO = 2;
     private static final int RANDOMCASETHREE = 3;
+    // number of bits of a tile in the value mixed into a Zobrist key
+    private static final int TILE_BITS = 7;
+    // odd multiplier spreading the cell and tile over the Zobrist key
+    private static final long ZOBRIST_GAMMA = 0x9e3779b97f4a7c15L;
+    // the tile a tile turns into when the board is rotated counterclockwise,
+    // indexed by the byte value of the tile, only the zappers change
+    private static final byte[] ROTATED_TILE = new byte[128];
+    // the zappers an up or down move looks for in front of the player, in
+    // the order the original moveup and movedown checked them
+    private static final char[] VERTICAL_CHECKS =
+        {LEFT_ZAP_CHAR, RIGHT_ZAP_CHAR, DOWN_ZAP_CHAR, UP_ZAP_CHAR};
+    // the stages of a move waiting on the stack: not slid yet, then one
+    // more for every check of the tile in front
+    private static final int MOVE_STAGES = VERTICAL_CHECKS.length + 2;
+    // the directions by ordinal
+    private static final Direction[] DIRECTIONS = Direction.values();
+    // the seed of the random tiles and inputs of the journal check of main
+    private static final long JOURNAL_SEED = 3;
+    // the random inputs of the journal check of main
+    private static final int JOURNAL_INPUTS = 200;
+
+    static {
+        for (int i = 0; i < ROTATED_TILE.length; i++) {
+            ROTATED_TILE[i] = (byte) i;
+        }
+        ROTATED_TILE[UP_ZAP_CHAR] = LEFT_ZAP_CHAR;
+        ROTATED_TILE[DOWN_ZAP_CHAR] = RIGHT_ZAP_CHAR;
+        ROTATED_TILE[RIGHT_ZAP_CHAR] = UP_ZAP_CHAR;
+        ROTATED_TILE[LEFT_ZAP_CHAR] = DOWN_ZAP_CHAR;
+    }
 
 
-    /* Instance variables, do not add any */
-    char[][] board;
-    // 2-D array containing the tiles of the board, each tile has a value
+    /* Instance variables */
+    byte[] tiles;
+    // the tiles of the board stored row by row in one flat array, each
+    // tile is the byte value of its char, access using index(row, col)
+    int height; // the number of rows of the board
+    int width; // the number of columns of the board
     int playerRow;
     // the row of the playerin the board (0-indexing),
-    // access using board[playerRow][playerCol]
+    // access using getTile(playerRow, playerCol)
     int playerCol; // the column of the player in the board (0-indexing)
     int goalRow; // the row of the goal in the board (0-indexing)
     int goalCol; // the colum of the goal in the board (0-indexing)
     boolean levelPassed; // denotes whether the level is passed
+    SlideIndex slideIndex;
+    // the blocking tiles of the board, null until the first move
+    MoveJournal journal;
+    // records the tiles every move overwrites, null if moves are not undone
+    long zobrist; // Zobrist hash of the tiles, see zobristHash()
+    TileChangeListener listener;
+    // told about every tile that changes, null if nobody is listening
+    int slideLength; // the tiles the last move slid over
+    int zapperChain; // the zappers the last move went through
+    int[] pendingMoves;
+    // the moves of a zapper chain not finished yet, direction and stage,
+    // null until the first move
 
     /**
      * This constructor initialized the game board with given parameters, and
@@ -66,20 +109,18 @@ public class GameState {
      */
     public GameState(int height, int width, int playerRow, int playerCol,
                      int goalRow, int goalCol) {
-        this.board = new char[height][width];
+        this.height = height;
+        this.width = width;
+        this.tiles = new byte[height * width];
         // fill out the board with empty space char
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                this.board[i][j] = SPACE_CHAR;
-            }
-        }
+        Arrays.fill(this.tiles, (byte) SPACE_CHAR);
         // initialize all the instance variables
         this.playerCol = playerCol;
         this.playerRow = playerRow;
         this.goalCol = goalCol;
         this.goalRow = goalRow;
-        this.board[playerRow][playerCol] = PLAYER_CHAR;
-        this.board[goalRow][goalCol] = GOAL_CHAR;
+        setTile(playerRow, playerCol, PLAYER_CHAR);
+        setTile(goalRow, goalCol, GOAL_CHAR);
         //check if the game ends
         if (playerCol == goalCol && playerRow == goalRow) {
             this.levelPassed = true;
@@ -95,12 +136,13 @@ public class GameState {
      * @param other The gameState object that we want to copy from.
      */
     public GameState(GameState other) {
-//copy the other's board
-        this.board = new char[other.board.length][other.board[0].length];
-        for (int i = 0; i < other.board.length; i++) {
-            for (int j = 0; j < other.board[0].length; j++) {
-                this.board[i][j] = other.board[i][j];
-            }
+        //copy the other's board, one flat array copy
+        this.height = other.height;
+        this.width = other.width;
+        this.tiles = other.tiles.clone();
+        this.zobrist = other.zobrist;
+        if (other.slideIndex != null) {
+            this.slideIndex = new SlideIndex(other.slideIndex);
         }
         // initialize all the instance variables based on other's instance
         // variables
@@ -112,6 +154,140 @@ public class GameState {
 
     }
 
+    /**
+     * getter for the number of rows of the board.
+     *
+     * @return the height of the board
+     */
+    int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * getter for the number of columns of the board.
+     *
+     * @return the width of the board
+     */
+    int getWidth() {
+        return this.width;
+    }
+
+    /**
+     * the position of a tile in the flat tiles array.
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return the index of the tile in this.tiles
+     */
+    int index(int row, int col) {
+        return row * this.width + col;
+    }
+
+    /**
+     * getter for a single tile of the board.
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     * @return the char of the tile, such as PLAYER_CHAR or TRAIL_CHAR
+     */
+    char getTile(int row, int col) {
+        return (char) this.tiles[row * this.width + col];
+    }
+
+    /**
+     * setter for a single tile of the board. Does not move the player or
+     * the goal, those positions are kept by the caller.
+     *
+     * @param row  the row of the tile
+     * @param col  the column of the tile
+     * @param tile the char of the tile, such as OBSTACLE_CHAR
+     */
+    void setTile(int row, int col, char tile) {
+        int cell = row * this.width + col;
+        if (this.journal != null && this.journal.recording) {
+            this.journal.record(cell, this.tiles[cell]);
+        }
+        restoreTile(cell, (byte) tile);
+    }
+
+    /**
+     * replace every tile of the board at once, as when a level is loaded.
+     * The array is used as it is, the hash is computed again and the slide
+     * index is rebuilt on the next move.
+     *
+     * @param newTiles the tiles row by row, height * width of them
+     */
+    void replaceTiles(byte[] newTiles) {
+        this.tiles = newTiles;
+        this.slideIndex = null;
+        this.zobrist = 0;
+        for (int i = 0; i < newTiles.length; i++) {
+            this.zobrist ^= zobristKey(i, newTiles[i]);
+        }
+        if (this.journal != null) {
+            this.journal.clear();
+        }
+        if (this.listener != null) {
+            this.listener.boardChanged();
+        }
+    }
+
+    /**
+     * write a tile without journaling it, used by setTile and to write back
+     * a tile during an undo. Keeps the hash and the slide index in step.
+     *
+     * @param cell the flat index of the tile
+     * @param tile the byte value of the tile to put back
+     */
+    void restoreTile(int cell, byte tile) {
+        this.zobrist ^= zobristKey(cell, this.tiles[cell])
+                ^ zobristKey(cell, tile);
+        this.tiles[cell] = tile;
+        if (this.slideIndex != null) {
+            if (tile == SPACE_CHAR) {
+                this.slideIndex.clearBlocked(cell / width, cell % width);
+            } else {
+                this.slideIndex.setBlocked(cell / width, cell % width);
+            }
+        }
+        if (this.listener != null) {
+            this.listener.tileChanged(cell / width, cell % width,
+                    (char) tile);
+        }
+    }
+
+    /**
+     * the Zobrist hash of the board, the xor of the key of every tile that
+     * is not SPACE_CHAR. Kept up to date by every tile write, so reading it
+     * is O(1).
+     *
+     * @return the 64 bit hash of the tiles
+     */
+    long zobristHash() {
+        return this.zobrist;
+    }
+
+    /**
+     * the Zobrist key of one tile at one cell. The keys come from mixing the
+     * cell and the tile instead of from a random table, so boards of any
+     * size need no memory for them. An empty tile has the key 0, so a new
+     * board only hashes its few non-empty tiles.
+     *
+     * @param cell the flat index of the tile
+     * @param tile the byte value of the tile
+     * @return the key of the tile at the cell
+     */
+    static long zobristKey(int cell, byte tile) {
+        if (tile == SPACE_CHAR) {
+            return 0;
+        }
+        // splitmix64 finalizer
+        long z = ((long) cell << TILE_BITS | tile) * ZOBRIST_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
     /**
      * main method to test the functionality. Need to pass for the check point.
      *
@@ -128,22 +304,51 @@ public class GameState {
         System.out.print(state.toString());//print out the state
         state.rotateCounterClockwise();//rotate the game board.
         System.out.print(state.toString());//print our the state
+
+        //make random moves and undos through the undo journal and check
+        //that every undo brings back the board from before its move
+        SplittableRandom random = new SplittableRandom(JOURNAL_SEED);
+        state2.addRandomTiles(RANDOMNUMFOUR * RANDOMNUMFOUR,
+                RANDOMNUMFOUR * 2, random);
+        MoveJournal journal = new MoveJournal();
+        state2.journal = journal;
+        List<GameState> before = new ArrayList<GameState>();
+        boolean same = true;
+        int moves = 0;
+        for (int k = 0; k < JOURNAL_INPUTS || !before.isEmpty(); k++) {
+            if (k >= JOURNAL_INPUTS || state2.levelPassed
+                    || random.nextInt(RANDOMNUMFOUR) == 0) {
+                GameState last = before.isEmpty() ? state2
+                        : before.remove(before.size() - 1);
+                same = same && journal.undo(state2) == (last != state2)
+                        && state2.equals(last)
+                        && state2.zobristHash() == last.zobristHash();
+            } else {
+                GameState copy = new GameState(state2);
+                journal.beginMove(state2);
+                state2.move(DIRECTIONS[random.nextInt(DIRECTIONS.length)]);
+                if (journal.endMove()) {
+                    before.add(copy);
+                    moves = moves + 1;
+                }
+            }
+        }
+        System.out.println("undo journal, " + moves + " moves: "
+                + (same ? "ok" : "FAILED"));
     }
 
     /**
-     * run through the this.board and count the number of empty tiles.
+     * run through the this.tiles and count the number of empty tiles.
      *
-     * @return the number of empty tiles in this.board
+     * @return the number of empty tiles in this.tiles
      */
     int countEmptyTiles() {
         //initialized the count
         int count = 0;
-        // loop through each row and col and count number of space char
-        for (int i = 0; i < this.board.length; i++) {
-            for (int j = 0; j < this.board[0].length; j++) {
-                if (this.board[i][j] == SPACE_CHAR) {
-                    count = count + 1;
-                }
+        // loop through the flat board and count number of space char
+        for (int i = 0; i < this.tiles.length; i++) {
+            if (this.tiles[i] == SPACE_CHAR) {
+                count = count + 1;
             }
         }
         //return the number of empty tiles
@@ -157,23 +362,7 @@ public class GameState {
      * @param count the number of obstacles we want to add
      */
     void addRandomObstacles(int count) {
-        // check if the number of obstacles exceeds the available spaces
-        int num = countEmptyTiles();
-        if (count > num || count < 0) {
-            return;
-        }
-        // create random generater
-        Random r = new Random();
-        int remain = count;
-        // add the obstacles to the board
-        while (remain > 0) {
-            int randrow = r.nextInt(this.board.length);
-            int randcol = r.nextInt(this.board[0].length);
-            if (this.board[randrow][randcol] == SPACE_CHAR) {
-                this.board[randrow][randcol] = OBSTACLE_CHAR;
-                remain = remain - 1;
-            }
-        }
+        addRandomTiles(count, 0, new SplittableRandom());
     }
 
     /**
@@ -183,39 +372,69 @@ public class GameState {
      * @param count the number of zappers we want to add into the board.
      */
     void addRandomZappers(int count) {
-        // check if the zappers  exceed the available spaces
-        int num = countEmptyTiles();
-        if (count > num || count < 0) {
+        addRandomTiles(0, count, new SplittableRandom());
+    }
+
+    /**
+     * add obstacles and zappers with random directions at random empty
+     * tiles. The empty tiles are listed once and drawn from that list
+     * without putting them back, so no draw is ever retried. Nothing is
+     * added if there are not enough empty tiles.
+     *
+     * @param obstacles the number of obstacles we want to add
+     * @param zappers   the number of zappers we want to add
+     * @param random    the random generator to draw from
+     */
+    void addRandomTiles(int obstacles, int zappers, SplittableRandom random) {
+        int count = obstacles + zappers;
+        int[] empty = emptyCells();
+        if (obstacles < 0 || zappers < 0 || count > empty.length) {
             return;
         }
-        Random r = new Random();
-        int remain = count;
-        // randomly add zappers
-        while (remain > 0) {
-            int randrow = r.nextInt(this.board.length);
-            int randcol = r.nextInt(this.board[0].length);
-            if (this.board[randrow][randcol] == SPACE_CHAR) {
-                int direction = r.nextInt(RANDOMNUMFOUR);
+        for (int k = 0; k < count; k++) {
+            // swap a random one of the remaining cells to position k
+            int pick = k + random.nextInt(empty.length - k);
+            int cell = empty[pick];
+            empty[pick] = empty[k];
+            empty[k] = cell;
+            char tile = OBSTACLE_CHAR;
+            if (k >= obstacles) {
                 // depend on the random number, zero, one, two, three
                 // we choose the direction of the zapper
-                switch (direction) {
+                switch (random.nextInt(RANDOMNUMFOUR)) {
                     case 0:
-                        this.board[randrow][randcol] = DOWN_ZAP_CHAR;
+                        tile = DOWN_ZAP_CHAR;
                         break;
                     case 1:
-                        this.board[randrow][randcol] = UP_ZAP_CHAR;
+                        tile = UP_ZAP_CHAR;
                         break;
                     case RANDOMCASETWO:
-                        this.board[randrow][randcol] = LEFT_ZAP_CHAR;
+                        tile = LEFT_ZAP_CHAR;
                         break;
                     case RANDOMCASETHREE:
-                        this.board[randrow][randcol] = RIGHT_ZAP_CHAR;
+                        tile = RIGHT_ZAP_CHAR;
                         break;
                 }
-                remain = remain - 1;
             }
+            setTile(cell / width, cell % width, tile);
         }
+    }
 
+    /**
+     * list the flat indices of every empty tile.
+     *
+     * @return the cells holding SPACE_CHAR, in board order
+     */
+    int[] emptyCells() {
+        int[] cells = new int[countEmptyTiles()];
+        int count = 0;
+        for (int i = 0; i < this.tiles.length; i++) {
+            if (this.tiles[i] == SPACE_CHAR) {
+                cells[count] = i;
+                count = count + 1;
+            }
+        }
+        return cells;
     }
 
     /**
@@ -235,45 +454,54 @@ public class GameState {
      * of the GameStates are also changed.
      */
     void rotateCounterClockwise() {
-        //create new char board
-        char[][] rotated = new char[board[0].length][board.length];
-// rotate counterclockwise
-        for (int i = 0; i < board[0].length; ++i) {
-            for (int j = 0; j < board.length; ++j) {
-
-                char prev = board[j][board[0].length - i - 1];
-
-                rotated[i][j] = prev;
-                //for goal
-                if (prev == GOAL_CHAR) {
-                    this.goalRow = i;
-                    this.goalCol = j;
-                }
-                //for player
-                if (prev == PLAYER_CHAR) {
-                    this.playerRow = i;
-                    this.playerCol = j;
-                }
+        //create new flat board, the rotated board is width rows tall
+        byte[] rotated = new byte[tiles.length];
+        // rotate counterclockwise, the tile at (j, width - i - 1) goes to
+        // (i, j) and the zappers are turned in the same pass
+        for (int i = 0; i < width; ++i) {
+            int from = width - i - 1;
+            int to = i * height;
+            for (int j = 0; j < height; ++j) {
+                rotated[to + j] = ROTATED_TILE[tiles[from]];
+                from = from + width;
             }
-
         }
-        // rotate the directions of zappers
-        for (int x = 0; x < rotated.length; ++x) {
-            for (int y = 0; y < rotated[0].length; ++y) {
-                if (rotated[x][y] == UP_ZAP_CHAR) {
-                    rotated[x][y] = LEFT_ZAP_CHAR;
-                } else if (rotated[x][y] == DOWN_ZAP_CHAR) {
-                    rotated[x][y] = RIGHT_ZAP_CHAR;
-                } else if (rotated[x][y] == RIGHT_ZAP_CHAR) {
-                    rotated[x][y] = UP_ZAP_CHAR;
-                } else if (rotated[x][y] == LEFT_ZAP_CHAR) {
-                    rotated[x][y] = DOWN_ZAP_CHAR;
-                }
-            }
+        // the goal and the player are rotated by their coordinates
+        int oldGoalRow = this.goalRow;
+        this.goalRow = width - this.goalCol - 1;
+        this.goalCol = oldGoalRow;
+        int oldPlayerRow = this.playerRow;
+        this.playerRow = width - this.playerCol - 1;
+        this.playerCol = oldPlayerRow;
+        int oldHeight = this.height;
+        this.height = this.width;
+        this.width = oldHeight;
+        this.tiles = rotated;
+        // every tile moved to a new cell, hash the board again
+        this.zobrist = 0;
+        for (int i = 0; i < rotated.length; i++) {
+            this.zobrist ^= zobristKey(i, rotated[i]);
+        }
+        // the index is rebuilt for the new shape on the next move
+        this.slideIndex = null;
+        // the journaled cells are positions on the old shape
+        if (this.journal != null) {
+            this.journal.clear();
+        }
+        if (this.listener != null) {
+            this.listener.boardChanged();
         }
-        this.board = rotated;
-
+    }
 
+    /**
+     * look at the board turned counterclockwise without copying it, see
+     * RotatedView.
+     *
+     * @param turns the number of counterclockwise turns
+     * @return a view sharing the tiles of this board
+     */
+    RotatedView rotatedView(int turns) {
+        return new RotatedView(this, turns);
     }
 
     /**
@@ -281,76 +509,255 @@ public class GameState {
      * the player reach the goal, we set levelPassed to true, and return.
      */
     void moveLeft() {
-        // if it can move , move left
-        while (playerCol > 0
-                && board[playerRow][playerCol - 1] == SPACE_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-        }
-        //encounter left zapper, move left
-        if (playerCol - 1 >= 0
-                && board[playerRow][playerCol - 1] == LEFT_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveLeft();
-        }
-        //encounter right zapper
-        else if (playerCol - 1 >= 0
-                && board[playerRow][playerCol - 1] == RIGHT_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveright();
-        }
-        // encounter up zapper
-        else if (playerCol - 1 >= 0
-                && board[playerRow][playerCol - 1] == UP_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveup();
-        }
-        // encounter down zapper
-        else if (playerCol - 1 >= 0
-                && board[playerRow][playerCol - 1] == DOWN_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            movedown();
-        }
-        // encounter obstacle don't move
-        else if (playerCol - 1 >= 0
-                && board[playerRow][playerCol - 1] == OBSTACLE_CHAR) {
-            return;
+        move(Direction.LEFT);
+    }
+
+    /**
+     * move in any direction. The player slides until the next blocking tile,
+     * found through the slide index in a constant number of word scans, and
+     * the trail behind it is filled in one bulk write. Then the tile in
+     * front of the player is looked at the way the original moveLeft,
+     * moveright, moveup and movedown did: a zapper is stepped on and starts
+     * a move in its direction, the goal is stepped on and ends the level,
+     * anything else stops the player. A left or right move looks at that
+     * tile once. An up or down move looks at it again after each zapper
+     * move it started is over, for the zappers in the order left, right,
+     * down, up and then the goal, so it can go on from wherever that chain
+     * stopped. The moves of a chain wait on a stack in place of the
+     * original recursion.
+     *
+     * @param direction the direction that we want to the snake to move.
+     */
+    void move(Direction direction) {
+        SlideIndex index = slideIndex();
+        this.slideLength = 0;
+        this.zapperChain = 0;
+        int depth = push(0, direction, 0);
+        while (depth > 0) {
+            int frame = pendingMoves[depth - 1];
+            Direction current = DIRECTIONS[frame / MOVE_STAGES];
+            int checks = frame % MOVE_STAGES;
+            if (checks == 0) {
+                slide(index, current);
+                checks = 1;
+            }
+            // the tile in front of the player, may be off the board
+            int nextRow = playerRow;
+            int nextCol = playerCol;
+            switch (current) {
+                case LEFT:
+                    nextCol = playerCol - 1;
+                    break;
+                case RIGHT:
+                    nextCol = playerCol + 1;
+                    break;
+                case UP:
+                    nextRow = playerRow - 1;
+                    break;
+                default:
+                    nextRow = playerRow + 1;
+                    break;
+            }
+            if (nextRow < 0 || nextRow >= height
+                    || nextCol < 0 || nextCol >= width) {
+                depth = depth - 1;
+                continue;
+            }
+            char next = getTile(nextRow, nextCol);
+            Direction turn = zapperDirection(next);
+            if (current == Direction.LEFT || current == Direction.RIGHT) {
+                // looked at once, the move is over
+                depth = depth - 1;
+                if (turn != null) {
+                    this.zapperChain = this.zapperChain + 1;
+                    slideTo(nextRow, nextCol);
+                    depth = push(depth, turn, 0);
+                } else if (next == GOAL_CHAR) {
+                    this.levelPassed = true;
+                    slideTo(nextRow, nextCol);
+                }
+                continue;
+            }
+            while (checks <= VERTICAL_CHECKS.length
+                    && next != VERTICAL_CHECKS[checks - 1]) {
+                checks = checks + 1;
+            }
+            if (checks <= VERTICAL_CHECKS.length) {
+                // come back to the next check once the zapper move is over
+                pendingMoves[depth - 1] = frame - frame % MOVE_STAGES
+                        + checks + 1;
+                this.zapperChain = this.zapperChain + 1;
+                slideTo(nextRow, nextCol);
+                depth = push(depth, turn, 0);
+                continue;
+            }
+            depth = depth - 1;
+            //encounter goal, terminate game
+            if (next == GOAL_CHAR) {
+                this.levelPassed = true;
+                slideTo(nextRow, nextCol);
+            }
         }
-        //encounter goal, terminate game
-        else if (playerCol - 1 >= 0
-                && board[playerRow][playerCol - 1] == GOAL_CHAR) {
-            this.levelPassed = true;
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
+    }
+
+    /**
+     * slide the player over the empty tiles in a direction, up to the next
+     * blocking tile or the edge of the board.
+     *
+     * @param index     the slide index of the board
+     * @param direction the direction of the slide
+     */
+    private void slide(SlideIndex index, Direction direction) {
+        int stop = index.nextBlocked(playerRow, playerCol, direction);
+        switch (direction) {
+            case LEFT:
+                slideTo(playerRow, stop + 1);
+                break;
+            case RIGHT:
+                slideTo(playerRow, stop - 1);
+                break;
+            case UP:
+                slideTo(stop + 1, playerCol);
+                break;
+            default:
+                slideTo(stop - 1, playerCol);
+                break;
+        }
+    }
+
+    /**
+     * put a move on the stack of the moves not finished yet, growing it
+     * when it is full.
+     *
+     * @param depth     the number of moves on the stack
+     * @param direction the direction of the move
+     * @param checks    the checks of the tile in front already made
+     * @return the number of moves on the stack after this one
+     */
+    private int push(int depth, Direction direction, int checks) {
+        if (pendingMoves == null || depth == pendingMoves.length) {
+            int[] grown = new int[depth == 0 ? 8 : depth * 2];
+            if (pendingMoves != null) {
+                System.arraycopy(pendingMoves, 0, grown, 0, depth);
+            }
+            pendingMoves = grown;
+        }
+        pendingMoves[depth] = direction.ordinal() * MOVE_STAGES + checks;
+        return depth + 1;
+    }
+
+    /**
+     * move the player in a straight line to the given tile, which is in the
+     * same row or column. Every tile the player leaves becomes TRAIL_CHAR,
+     * written in bulk, and the slide index is updated the same way. The
+     * listener is told about the tiles slid over once they are written.
+     *
+     * @param toRow the row the player ends on
+     * @param toCol the column the player ends on
+     */
+    private void slideTo(int toRow, int toCol) {
+        if (toRow == playerRow && toCol == playerCol) {
             return;
         }
+        SlideIndex index = slideIndex();
+        boolean journaled = journal != null && journal.recording;
+        if (toRow == playerRow) {
+            // a row is contiguous in the flat board, fill it in one go
+            int from = Math.min(playerCol, toCol);
+            int to = Math.max(playerCol, toCol) + 1;
+            int rowStart = playerRow * width;
+            for (int i = rowStart + from; i < rowStart + to; i++) {
+                if (journaled) {
+                    journal.record(i, tiles[i]);
+                }
+                zobrist ^= zobristKey(i, tiles[i])
+                        ^ zobristKey(i, (byte) TRAIL_CHAR);
+            }
+            Arrays.fill(tiles, rowStart + from, rowStart + to,
+                    (byte) TRAIL_CHAR);
+            index.setRowRange(playerRow, from, to);
+        } else {
+            // a column is one row apart in the flat board
+            int from = Math.min(playerRow, toRow);
+            int to = Math.max(playerRow, toRow) + 1;
+            for (int i = from * width + playerCol; i < to * width;
+                 i = i + width) {
+                if (journaled) {
+                    journal.record(i, tiles[i]);
+                }
+                zobrist ^= zobristKey(i, tiles[i])
+                        ^ zobristKey(i, (byte) TRAIL_CHAR);
+                tiles[i] = TRAIL_CHAR;
+            }
+            index.setColRange(playerCol, from, to);
+        }
+        int fromRow = playerRow;
+        int fromCol = playerCol;
+        slideLength = slideLength + Math.abs(toRow - fromRow)
+                + Math.abs(toCol - fromCol);
+        playerRow = toRow;
+        playerCol = toCol;
+        int cell = playerRow * width + playerCol;
+        zobrist ^= zobristKey(cell, (byte) TRAIL_CHAR)
+                ^ zobristKey(cell, (byte) PLAYER_CHAR);
+        tiles[cell] = PLAYER_CHAR;
+        if (listener != null) {
+            tellSlide(fromRow, fromCol);
+        }
     }
 
     /**
-     * move in any direction. We need to rotate the game board several times,
-     * and then move the snake left, and then rotate teh game board back.
+     * tell the listener about every tile of a slide, from where it started
+     * to where the player is now.
      *
-     * @param direction the direction that we want to the snake to move.
+     * @param fromRow the row the slide started on
+     * @param fromCol the column the slide started on
      */
-    void move(Direction direction) {
-        if (direction == Direction.LEFT) {
-            moveLeft();//call helper method
-        } else if (direction == Direction.RIGHT) {
-            moveright();//call helper method
-        } else if (direction == Direction.UP) {
-            moveup();//call helper method
-        } else if (direction == Direction.DOWN) {
-            movedown();//call helper method
+    private void tellSlide(int fromRow, int fromCol) {
+        int rowStep = Integer.signum(playerRow - fromRow);
+        int colStep = Integer.signum(playerCol - fromCol);
+        int row = fromRow;
+        int col = fromCol;
+        while (true) {
+            listener.tileChanged(row, col, (char) tiles[row * width + col]);
+            if (row == playerRow && col == playerCol) {
+                return;
+            }
+            row = row + rowStep;
+            col = col + colStep;
+        }
+    }
+
+    /**
+     * the slide index of this board, built the first time it is needed.
+     *
+     * @return the slide index matching the current tiles
+     */
+    SlideIndex slideIndex() {
+        if (this.slideIndex == null) {
+            this.slideIndex = new SlideIndex(this);
+        }
+        return this.slideIndex;
+    }
+
+    /**
+     * the direction a zapper sends the player in.
+     *
+     * @param tile the char of a tile
+     * @return the direction of the zapper, null if the tile is not a zapper
+     */
+    static Direction zapperDirection(char tile) {
+        switch (tile) {
+            case LEFT_ZAP_CHAR:
+                return Direction.LEFT;
+            case RIGHT_ZAP_CHAR:
+                return Direction.RIGHT;
+            case UP_ZAP_CHAR:
+                return Direction.UP;
+            case DOWN_ZAP_CHAR:
+                return Direction.DOWN;
+            default:
+                return null;
         }
     }
 
@@ -362,10 +769,11 @@ public class GameState {
      */
     @Override
     public String toString() {
-        int cols = this.board[0].length;
-        int rows = this.board.length;
+        int cols = this.width;
+        int rows = this.height;
         int num_dash = 2 * cols + 3;
-        StringBuilder result = new StringBuilder();
+        // every row is as wide as a wall plus its newline
+        StringBuilder result = new StringBuilder((rows + 2) * (num_dash + 1));
         //fill the top wall
         for (int a = 0; a < num_dash; a++) {
             result.append(HORIZONTAL_BORDER_CHAR);
@@ -376,8 +784,9 @@ public class GameState {
         while (i < rows) {
             result.append(SIDE_BORDER_CHAR);
             result.append(SPACE_CHAR);
+            int rowStart = i * cols;
             for (int j = 0; j < cols; j++) {
-                result.append(this.board[i][j]);
+                result.append((char) this.tiles[rowStart + j]);
                 result.append(SPACE_CHAR);
             }
             result.append(SIDE_BORDER_CHAR);
@@ -415,11 +824,15 @@ public class GameState {
         }
         //cast object
         GameState otherS = (GameState) other;
+        //different hashes can never be equal boards
+        if (this.zobrist != otherS.zobrist) {
+            return false;
+        }
         //check all instance variables
-        if (this.board[0].length != otherS.board[0].length) {
+        if (this.width != otherS.width) {
             return false;
         }
-        if (this.board.length != otherS.board.length) {
+        if (this.height != otherS.height) {
             return false;
         }
         //check the goal position
@@ -437,169 +850,19 @@ public class GameState {
             return false;
         }
 
-        //Check the string representation if is the same.
-        if (this.toString().equals(otherS.toString())) {
-            return true;
-        } else {
-            return false;
-        }
+        //Check the tiles, one flat array comparison
+        return Arrays.equals(this.tiles, otherS.tiles);
 
     }
 
     /**
-     * private Helper method to move teh player upward.
-     * Used for debug
-     */
-    private void moveup() {
-        while (playerRow > 0
-                && board[playerRow - 1][playerCol] == SPACE_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-        }
-        if (playerRow - 1 >= 0
-                && board[playerRow - 1][playerCol] == LEFT_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveLeft();
-        }
-        if (playerRow - 1 >= 0
-                && board[playerRow - 1][playerCol] == RIGHT_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveright();
-        }
-        if (playerRow - 1 >= 0
-                && board[playerRow - 1][playerCol] == DOWN_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            movedown();
-        }
-        if (playerRow - 1 >= 0
-                && board[playerRow - 1][playerCol] == UP_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveup();
-        }
-        if (playerRow - 1 >= 0
-                && board[playerRow - 1][playerCol] == OBSTACLE_CHAR) {
-            return;
-        }
-        if (playerRow - 1 >= 0
-                && board[playerRow - 1][playerCol] == GOAL_CHAR) {
-            this.levelPassed = true;
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow - 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            return;
-        }
-    }
-
-    /**
-     * private Helper method to move teh player downward.
-     * Used for debug
-     */
-    private void movedown() {
-        while (playerRow < board.length - 1
-                && board[playerRow + 1][playerCol] == SPACE_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-        }
-        if (playerRow + 1 <= board.length - 1
-                && board[playerRow + 1][playerCol] == LEFT_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveLeft();
-        }
-        if (playerRow + 1 <= board.length - 1
-                && board[playerRow + 1][playerCol] == RIGHT_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveright();
-        }
-        if (playerRow + 1 <= board.length - 1
-                && board[playerRow + 1][playerCol] == DOWN_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            movedown();
-        }
-        if (playerRow + 1 <= board.length - 1
-                && board[playerRow + 1][playerCol] == UP_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveup();
-        }
-        if (playerRow + 1 <= board.length - 1
-                && board[playerRow + 1][playerCol] == OBSTACLE_CHAR) {
-            return;
-        }
-        if (playerRow + 1 <= board.length - 1
-                && board[playerRow + 1][playerCol] == GOAL_CHAR) {
-            this.levelPassed = true;
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerRow = playerRow + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            return;
-        }
-
-    }
-
-    /**
-     * private Helper method to move teh player right.
-     * Used for debug
+     * hash code matching equals, taken from the Zobrist hash of the tiles so
+     * it costs O(1).
+     *
+     * @return the hash code of the GameState
      */
-    private void moveright() {
-        while (playerCol < board[0].length - 1
-                && board[playerRow][playerCol + 1] == SPACE_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-        }
-        if (playerCol + 1 <= board[0].length - 1
-                && board[playerRow][playerCol + 1] == LEFT_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveLeft();
-        } else if (playerCol + 1 <= board[0].length - 1
-                && board[playerRow][playerCol + 1] == RIGHT_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveright();
-        } else if (playerCol + 1 <= board[0].length - 1
-                && board[playerRow][playerCol + 1] == UP_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            moveup();
-        } else if (playerCol + 1 <= board[0].length - 1
-                && board[playerRow][playerCol + 1] == DOWN_ZAP_CHAR) {
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            movedown();
-        } else if (playerCol + 1 <= board[0].length - 1
-                && board[playerRow][playerCol + 1] == OBSTACLE_CHAR) {
-            return;
-        } else if (playerCol + 1 <= board[0].length - 1
-                && board[playerRow][playerCol + 1] == GOAL_CHAR) {
-            this.levelPassed = true;
-            this.board[playerRow][playerCol] = TRAIL_CHAR;
-            playerCol = playerCol + 1;
-            board[playerRow][playerCol] = PLAYER_CHAR;
-            return;
-        }
+    @Override
+    public int hashCode() {
+        return (int) (this.zobrist ^ (this.zobrist >>> 32));
     }
-
-
 }
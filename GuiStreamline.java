@@ -7,11 +7,12 @@ import javafx.scene.*;
 import javafx.scene.shape.*;
 import javafx.stage.Stage;
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 import javafx.animation.*;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.event.EventHandler;
 import javafx.event.ActionEvent;
@@ -34,6 +35,15 @@ public class GuiStreamline extends Application {
     static final double SCALE_TIME = 175;  // milliseconds for scale animation
     static final double FADE_TIME = 250;   // milliseconds for fade animation
     static final double DOUBLE_MULTIPLIER = 2;
+    // Picks how the board is drawn: "nodes", "canvas", "viewport" or "auto"
+    static final String RENDERER_PROPERTY = "streamline.renderer";
+    // With "auto", boards with more tiles than this are drawn on a canvas
+    static final int CANVAS_MIN_TILES = 2500;
+    // With "auto", boards whose squares would be smaller than this when the
+    // whole board fits the window are shown through a viewport
+    static final double VIEWPORT_MAX_SQUARE_SIZE = 4;
+    // Names a directory every level played is logged to, see SessionLog
+    static final String LOG_PROPERTY = "streamline.log";
 
     static final String TITLE = "Snake Streamline Game";
     static final String USAGE = 
@@ -45,7 +55,24 @@ public class GuiStreamline extends Application {
         "> java GuiStreamline <directory>   - to start a game by reading a" +
         "ll game states from files in\n" +
         "                                     the specified directory and " +
-        "playing them in order\n";
+        "playing them in order\n" +
+        "> java GuiStreamline <level pack>  - to start a game by playing a" +
+        "ll levels of a pack written\n" +
+        "                                     by LevelPack, in order\n" +
+        "Add -D" + RENDERER_PROPERTY + "=nodes|canvas|viewport|auto befo" +
+        "re GuiStreamline to pick how the\n" +
+        "board is drawn, auto uses a canvas for boards of more than " +
+        CANVAS_MIN_TILES + " tiles\n" +
+        "and a viewport following the player for boards too big to read " +
+        "in the window\n" +
+        "Add -D" + LOG_PROPERTY + "=<directory> to log every level played" +
+        " for SessionReplayer\n" +
+        "Add -D" + Streamline.AUTOSAVE_PROPERTY + "=true to autosave the l" +
+        "evels read from files, a level\n" +
+        "left unfinished goes on where it was left the next time\n" +
+        "Add -D" + EngineMetrics.METRICS_PROPERTY + "=<seconds> to print " +
+        "the engine metrics that often, and\n" +
+        "-D" + EngineMetrics.JSON_PROPERTY + "=true to print them as JSON\n";
 
     static final Color TRAIL_COLOR = Color.PALEVIOLETRED;
     static final Color GOAL_COLOR = Color.MEDIUMAQUAMARINE;
@@ -84,13 +111,34 @@ public class GuiStreamline extends Application {
     Shape[][] grid;
     // Same dimensions as the game board
     Shape[][] trailsGrid;
+    CanvasBoardRenderer canvasRenderer;
+    // Draws the board instead of grid and trailsGrid for large boards
+    boolean usingCanvas;
+    // Whether the current level is drawn by canvasRenderer
+    ViewportRenderer viewport;
+    // Shows the tiles around the player only, for boards too big to read
+    boolean usingViewport;
+    // Whether the current level is shown through viewport
     Streamline game;
-    // The current level
-    ArrayList<Streamline> nextGames;
-    // Future levels
+    // The current level, only touched by the engine once it is playing
+    GameState shown;
+    // The board of the current level as the engine last published it,
+    // the only board the renderers read
+    MoveEngine engine;
+    // Makes the moves on a thread of its own, off the FX thread
+    SaveWriter saveWriter;
+    // Writes the saves asked for with O in the background
+    HintService hints;
+    // Finds the hints asked for with H off the FX thread
+    LevelQueue nextGames;
+    // Future levels, loaded a few at a time in the background
+    File[] levelFiles;
+    // The files of the levels of nextGames, null if not read from files
 
     MyKeyHandler myKeyHandler;
     // for keyboard input
+    MyTileListener myTileListener;
+    // for the tiles changed by every move
 
     /** 
      * Coverts the given board column and row into scene coordinates.
@@ -100,6 +148,10 @@ public class GuiStreamline extends Application {
      * @return scene coordinates as length 2 array where index 0 is x
      */
     public double[] boardIdxToScenePos (int boardCol, int boardRow) {
+        if (usingViewport) {
+            return new double[]{viewport.sceneX(boardCol),
+                viewport.sceneY(boardRow)};
+        }
         double sceneX = ((boardCol + MIDDLE_OFFSET) * 
                 (mainScene.getWidth() - 1)) / getBoardWidth();
         double sceneY = ((boardRow + MIDDLE_OFFSET) * 
@@ -112,7 +164,7 @@ public class GuiStreamline extends Application {
      * @return the width of board
      */
     public int getBoardWidth() {
-        return this.game.currentState.board[0].length;
+        return this.shown.getWidth();
     }
 
     /** 
@@ -120,7 +172,7 @@ public class GuiStreamline extends Application {
      * @return the height of board
      */
     public int getBoardHeight() {
-        return this.game.currentState.board.length;
+        return this.shown.getHeight();
     }
 
     /**
@@ -128,6 +180,16 @@ public class GuiStreamline extends Application {
      * @return The best fit size of a square
      */
     public double getSquareSize() {
+        if(this.usingViewport) return ViewportRenderer.SQUARE_SIZE;
+        return this.getFitSquareSize();
+    }
+
+    /**
+     * This method returns the size of a square when the whole board fits
+     * the scene
+     * @return The best fit size of a square
+     */
+    public double getFitSquareSize() {
         //divide the width and height of scene by the number of squares
         double Width_divided = this.mainScene.getWidth()/this.getBoardWidth();
         double Height_divided = this.mainScene.getHeight()/this.getBoardHeight();
@@ -140,7 +202,49 @@ public class GuiStreamline extends Application {
      * This method resets all the trails and obstacles and zappers contained in the grid
      */
     public void resetGrid() {
+        EngineEvents.ResetGridEvent event =
+            new EngineEvents.ResetGridEvent();
+        event.begin();
+        //Draw large boards into one canvas instead of a shape per tile, or
+        //only the part of them around the player
+        String renderer = pickRenderer();
+        buildGrid(renderer);
+        if(event.shouldCommit()){
+            event.renderer = renderer;
+            event.boardWidth = this.getBoardWidth();
+            event.boardHeight = this.getBoardHeight();
+            event.commit();
+        }
+    }
+
+    /**
+     * This method draws the board with the given renderer, for resetGrid()
+     * @param renderer nodes, canvas or viewport, see pickRenderer()
+     */
+    private void buildGrid(String renderer) {
         this.levelGroup.getChildren().clear();
+        this.usingCanvas = renderer.equals("canvas");
+        this.usingViewport = renderer.equals("viewport");
+        this.viewport = null;
+        if(this.usingViewport){
+            this.grid = null;
+            this.trailsGrid = null;
+            this.viewport = new ViewportRenderer(this.levelGroup,
+                    this.mainScene.getWidth(), this.mainScene.getHeight(),
+                    this.shown);
+            return;
+        }
+        if(this.usingCanvas){
+            this.grid = null;
+            this.trailsGrid = null;
+            if(this.canvasRenderer == null){
+                this.canvasRenderer = new CanvasBoardRenderer();
+            }
+            this.canvasRenderer.draw(this.shown,
+                    this.mainScene.getWidth(), this.mainScene.getHeight());
+            levelGroup.getChildren().add(this.canvasRenderer.getCanvas());
+            return;
+        }
         int boardWidth = this.getBoardWidth();
         int boardHeight = this.getBoardHeight();
         this.grid = new Shape[boardHeight][boardWidth];
@@ -158,7 +262,7 @@ public class GuiStreamline extends Application {
                 double[] pixelCoord = this.boardIdxToScenePos(j,i);
                 double x = pixelCoord[0];
                 double y = pixelCoord[1];
-                char boardchar = this.game.currentState.board[i][j];
+                char boardchar = this.shown.getTile(i, j);
 
                 // add each trial circle. and all are initially set to be transparent
                 this.trailsGrid[i][j] = new Circle(x,y,circleSize);
@@ -216,41 +320,71 @@ public class GuiStreamline extends Application {
         updateTrailColors();
     }
 
+    /**
+     * This method decides how the board of the current level is drawn, from
+     * the RENDERER_PROPERTY system property
+     * @return "nodes" for a shape per tile, "canvas" or "viewport"
+     */
+    String pickRenderer() {
+        String renderer = System.getProperty(RENDERER_PROPERTY, "auto");
+        if(renderer.equals("canvas") || renderer.equals("nodes")
+                || renderer.equals("viewport")) return renderer;
+        if(getFitSquareSize() < VIEWPORT_MAX_SQUARE_SIZE) return "viewport";
+        if((long) getBoardWidth() * getBoardHeight() > CANVAS_MIN_TILES){
+            return "canvas";
+        }
+        return "nodes";
+    }
+
     /**
      * This method fill color of all trail Circles, making them visible or not
      * depending on if that board position equals TRAIL_CHAR
      */
     public void updateTrailColors() {
+        boolean timed = EngineMetrics.enabled;
+        long start = timed ? System.nanoTime() : 0;
         //Loop through all elements in grid
         for(int i=0; i<this.grid.length; i++){
             for(int j=0; j<this.grid[0].length; j++){
-                // the char on the player board @ . < etc.
-                char boardchar = this.game.currentState.board[i][j];
-                if(grid[i][j] instanceof ZapperTriangle){
-                    //Fill the circle if it corresponds to TRAIL_CHAR
-                    if(boardchar == TRAIL_CHAR) {
-                        trailsGrid[i][j].setFill(TRAIL_COLOR);
-                        grid[i][j].setFill(Color.TRANSPARENT);
-                    }
-                    //Do not fill the circle if it corresponds to SPACE_CHAR
-                    else if(boardchar != TRAIL_CHAR){
-                        grid[i][j].setFill(ZAPPER_COLOR);
-                        trailsGrid[i][j].setFill(Color.TRANSPARENT);
-                    }
-                }
-                if(grid[i][j] instanceof Circle){
-                    if(boardchar == TRAIL_CHAR) {
-                        trailsGrid[i][j].setFill(TRAIL_COLOR);
-                        grid[i][j].setFill(TRAIL_COLOR);
-                    }
-                    else{
-                        trailsGrid[i][j].setFill(Color.TRANSPARENT);
-                        grid[i][j].setFill(Color.TRANSPARENT);
-                    }
+                updateTrailColor(i, j, this.shown.getTile(i, j));
+            }
+        }
+        if(timed){
+            EngineMetrics.GLOBAL.trailColors.record(System.nanoTime() - start);
+        }
+    }
 
-                }
+    /**
+     * This method fill color of the trail Circle of one board position,
+     * making it visible or not depending on if the tile equals TRAIL_CHAR
+     * @param i The row of the board position
+     * @param j The column of the board position
+     * @param boardchar the char on the player board @ . < etc.
+     */
+    public void updateTrailColor(int i, int j, char boardchar) {
+        if(grid[i][j] instanceof ZapperTriangle){
+            //Fill the circle if it corresponds to TRAIL_CHAR
+            if(boardchar == TRAIL_CHAR) {
+                trailsGrid[i][j].setFill(TRAIL_COLOR);
+                grid[i][j].setFill(Color.TRANSPARENT);
+            }
+            //Do not fill the circle if it corresponds to SPACE_CHAR
+            else if(boardchar != TRAIL_CHAR){
+                grid[i][j].setFill(ZAPPER_COLOR);
+                trailsGrid[i][j].setFill(Color.TRANSPARENT);
             }
         }
+        if(grid[i][j] instanceof Circle){
+            if(boardchar == TRAIL_CHAR) {
+                trailsGrid[i][j].setFill(TRAIL_COLOR);
+                grid[i][j].setFill(TRAIL_COLOR);
+            }
+            else{
+                trailsGrid[i][j].setFill(Color.TRANSPARENT);
+                grid[i][j].setFill(Color.TRANSPARENT);
+            }
+
+        }
     }
 
     /**
@@ -265,66 +399,109 @@ public class GuiStreamline extends Application {
     {
         
         //Call onLevelFinished is level is passed
-        if(this.game.currentState.levelPassed==true){
+        if(this.shown.levelPassed==true){
             onLevelFinished();
         }
 
 
         //Do nothing if the player does not move
         if(fromCol==toCol && fromRow==toRow) return;
-        //Convert board index of player to scene coordinate
+        //Scroll the viewport if the player got close to its edge, the goal
+        //moves on the screen with the rest of the board
+        if(this.usingViewport && this.viewport.follow()){
+            double[] goalPos = boardIdxToScenePos(
+                    shown.goalCol, shown.goalRow);
+            goalRect.setCenterX(goalPos[0]);
+            goalRect.setCenterY(goalPos[1]);
+        }
+        //Convert board index of player to scene coordinate, the trails
+        //were already colored by MyTileListener as the tiles changed
         double[] playerPos = boardIdxToScenePos(toCol, toRow);
-        updateTrailColors();
         //Update the location of player
         playerRect.setCenterX(playerPos[0]);
         playerRect.setCenterY(playerPos[1]);
     }
 
     /** 
-     * This method identifies which key is pressed, and move the player 
-     * accordingly
+     * This method identifies which key is pressed, and hands the move to
+     * the engine, which makes it off the FX thread. onChanges() shows it
      * @param keyCode The code of the key being pressed
      */
     void handleKeyCode(KeyCode keyCode)
     {
-        int fromCol = game.currentState.playerCol;
-        int fromRow = game.currentState.playerRow;
         switch(keyCode) {
             case UP:
-                game.recordAndMove(Direction.UP);
+                engine.submit('w');
                 break;  
             case DOWN:
-                game.recordAndMove(Direction.DOWN);
+                engine.submit('s');
                 break;
             case LEFT:
-                game.recordAndMove(Direction.LEFT);
+                engine.submit('a');
                 break;                      
             case RIGHT:
-                game.recordAndMove(Direction.RIGHT);
+                engine.submit('d');
                 break;        
             case U:
-                game.undo();
+                engine.submit('u');
                 break; 
+            case R:
+                engine.submit('r');
+                break;
             case O:
-                game.saveToFile();
+                engine.submit('o');
+                break;
+            case H:
+                //Solved off the FX thread, printed back on it
+                hints.hintLater(shown).thenAccept(hint -> Platform.runLater(
+                        () -> System.out.println(Streamline.hintText(hint))));
                 break;
             case Q:
-                System.exit(0);
+                quit();
                 break;       
             default:
                 System.out.println("Possible commands:\n w - up\n " + 
                         "a - left\n s - down\n d - right\n u - undo\n " + 
-                        "q - quit level");
+                        "r - redo\n h - hint\n q - quit level");
                 break;
         }
-        int toCol = game.currentState.playerCol;
-        int toRow = game.currentState.playerRow;
+    }
+
+    /**
+     * This method shows what a batch of keys changed on the board, called
+     * on the FX thread by the engine
+     * @param changes The tiles written and where the player ended up
+     */
+    void onChanges(MoveEngine.ChangeSet changes)
+    {
+        //Ignore what is left of a level that is already finished
+        if(changes.game != this.game) return;
+        boolean timed = EngineMetrics.enabled;
+        long start = timed ? System.nanoTime() : 0;
+        int fromCol = shown.playerCol;
+        int fromRow = shown.playerRow;
+        if(changes.board != null){
+            //The whole board was replaced, draw it again
+            shown = changes.board;
+            shown.listener = this.myTileListener;
+            resetGrid();
+        }
+        //Write the tiles into the shown board, MyTileListener restyles them
+        for(int i=0; i<changes.cells.length; i++){
+            shown.restoreTile(changes.cells[i], changes.tiles[i]);
+        }
+        shown.playerRow = changes.playerRow;
+        shown.playerCol = changes.playerCol;
+        shown.levelPassed = changes.levelPassed;
 
         /**
            Call onPlayerMoved() to update the GUI to reflect the player's 
            movement
            */
-        onPlayerMoved(fromCol, fromRow, toCol, toRow);
+        onPlayerMoved(fromCol, fromRow, changes.playerCol, changes.playerRow);
+        if(timed){
+            EngineMetrics.GLOBAL.redraw.record(System.nanoTime() - start);
+        }
     }
 
     /**
@@ -342,15 +519,50 @@ public class GuiStreamline extends Application {
     }
 
     /**
-     * This method updates the UI with game.currentState
+     * This nested class is told by the GameState about every tile a move or
+     * an undo changes, and colors only those board positions, so a move
+     * costs as much as the tiles it changed and not the whole board
+     */
+    class MyTileListener implements TileChangeListener
+    {
+        /**
+         * This method colors the trail of the board position that changed
+         */
+        public void tileChanged(int row, int col, char tile)
+        {
+            if(usingViewport) viewport.tileChanged(row, col, tile);
+            else if(usingCanvas) canvasRenderer.drawTile(row, col, tile);
+            else updateTrailColor(row, col, tile);
+        }
+
+        /**
+         * This method rebuilds the whole grid when the whole board changed
+         */
+        public void boardChanged()
+        {
+            resetGrid();
+        }
+    }
+
+    /**
+     * This method updates the UI with game.currentState, then hands the
+     * game to the engine
      */
     public void onLevelLoaded()
     {
+        this.shown = new GameState(game.currentState);
         this.resetGrid();
+        this.shown.listener = this.myTileListener;
+        //Log the inputs of the level if asked to
+        String logDirectory = System.getProperty(LOG_PROPERTY);
+        if(logDirectory != null){
+            game.startLog(new File(logDirectory, String.format(
+                    "session-%d.sls", System.currentTimeMillis())).toString());
+        }
         double squareSize = getSquareSize() * SQUARE_FRACTION;
         //Update the player position
         double[] playerPos = boardIdxToScenePos(
-                game.currentState.playerCol, game.currentState.playerRow
+                shown.playerCol, shown.playerRow
                 );
         playerRect.setSize(squareSize);
         playerRect.setCenterX(playerPos[0]);
@@ -358,14 +570,38 @@ public class GuiStreamline extends Application {
 
         //Update the goal position
         double[] goalPos = boardIdxToScenePos(
-                game.currentState.goalCol, game.currentState.goalRow
+                shown.goalCol, shown.goalRow
                 );
         goalRect.setSize(squareSize);
         goalRect.setCenterX(goalPos[0]);
         goalRect.setCenterY(goalPos[1]);
         goalRect.setFill(GOAL_COLOR);
 
+        //Solve the level in the background, so H answers right away
+        hints.precompute(shown);
+
+        //From here on only the engine thread touches the game
+        engine.setGame(game);
+
+
+    }
 
+    /**
+     * Quit the game. The keys still waiting for the engine are applied
+     * first and the saves they asked for are written, so nothing asked for
+     * before Q is dropped. The levels being loaded ahead and the hints
+     * being solved are abandoned.
+     */
+    void quit() {
+        engine.stop();
+        try {
+            saveWriter.shutdown();
+        } catch (IOException e) {
+            // already reported when the save failed
+        }
+        nextGames.shutdown();
+        hints.shutdown();
+        System.exit(0);
     }
 
     /** 
@@ -373,6 +609,9 @@ public class GuiStreamline extends Application {
      * and loads the next level if there is one.
      */
     public void onLevelFinished() {
+        EngineEvents.LevelTransitionEvent setup =
+            new EngineEvents.LevelTransitionEvent();
+        setup.begin();
         // Clone the goal rectangle and scale it up until it covers the screen
 
         // Clone the goal rectangle
@@ -402,6 +641,11 @@ public class GuiStreamline extends Application {
                 mainScene.getWidth() / animatedGoal.getWidth());
         st.setByY(DOUBLE_MULTIPLIER * 
                 mainScene.getHeight() / animatedGoal.getHeight());
+        if(setup.shouldCommit()){
+            setup.phase = "animation";
+            setup.levelsLeft = nextGames.size();
+            setup.commit();
+        }
 
         /**
          * This will be called after the scale animation finishes.
@@ -414,10 +658,19 @@ public class GuiStreamline extends Application {
                    update the instances variables game and nextGames 
                    to switch to the next level
                    */
-                if(nextGames.size()==0){System.exit(0);}
+                EngineEvents.LevelTransitionEvent change =
+                    new EngineEvents.LevelTransitionEvent();
+                change.begin();
+                game.stopLog();
+                Streamline next = pollLevel();
+                if(change.shouldCommit()){
+                    change.phase = "switch";
+                    change.levelsLeft = nextGames.size();
+                    change.commit();
+                }
+                if(next == null){quit();}
                 else{ 
-                    game = nextGames.get(0);
-                    nextGames.remove(0);
+                    game = next;
                 }
 
                 //Remove the animation that covers the interface
@@ -468,7 +721,8 @@ public class GuiStreamline extends Application {
      */
     public void loadLevels() {
         game = null;
-        nextGames = new ArrayList<Streamline>();
+        nextGames = new LevelQueue(0, null, 0);
+        levelFiles = null;
 
         List<String> args = getParameters().getRaw();
         if (args.size() == 0) {
@@ -486,33 +740,60 @@ public class GuiStreamline extends Application {
             return;
         }
 
+        // a level pack, levels are read from it by number when needed
+        if (LevelPack.isPack(args.get(0))) {
+            LevelPack pack;
+            try {
+                pack = new LevelPack(args.get(0));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            System.out.printf("Playing %d games from level pack %s...\n",
+                    pack.size(), args.get(0));
+            nextGames = new LevelQueue(pack.size(), pack::game,
+                    LevelQueue.DEFAULT_PREFETCH);
+            game = pollLevel();
+            return;
+        }
+
         // if is not a directory, read from the file and start the game
         if (!file.isDirectory()) {
             System.out.printf("Loading single game from file %s...\n", 
                     args.get(0));
             game = new Streamline(args.get(0));
+            game.resumeAutosave(args.get(0));
             return;
         }
 
-        // file is a directory, walk the directory and load from all files
-        File[] subfiles = file.listFiles();
+        // file is a directory, only list the files here, in case there's a
+        // directory in there, skip it. A level is parsed when it's close to
+        // being played
+        File[] subfiles = file.listFiles(File::isFile);
         Arrays.sort(subfiles);
-        for (int i=0; i<subfiles.length; i++) {
-            File subfile = subfiles[i];
-
-            // in case there's a directory in there, skip
-            if (subfile.isDirectory()) continue;
+        System.out.printf("Playing %d games from directory %s...\n",
+                subfiles.length, args.get(0));
+        levelFiles = subfiles;
+        nextGames = new LevelQueue(subfiles.length,
+                i -> new Streamline(subfiles[i].toString()),
+                LevelQueue.DEFAULT_PREFETCH);
+
+        // Switch to the first level, parsed right away
+        game = pollLevel();
+    }
 
-            // assume all files are properly formatted games, 
-            // create a new game for each file, and add it to nextGames
-            System.out.printf("Loading game %d/%d from file %s...\n",
-                    i+1, subfiles.length, subfile.toString());
-            nextGames.add(new Streamline(subfile.toString()));
+    /**
+     * Takes the next level of nextGames and starts autosaving it if it was
+     * read from a file. Levels loaded ahead are only autosaved from here,
+     * once they are played.
+     * @return the level, null if there is none left
+     */
+    Streamline pollLevel() {
+        Streamline level = nextGames.poll();
+        if (level != null && levelFiles != null) {
+            level.resumeAutosave(levelFiles[nextGames.current].toString());
         }
-
-        // Switch to the first level
-        game = nextGames.get(0);
-        nextGames.remove(0);
+        return level;
     }
 
     /**
@@ -545,6 +826,14 @@ public class GuiStreamline extends Application {
         //Implement event handler
         this.myKeyHandler = new MyKeyHandler();
         this.mainScene.setOnKeyPressed(myKeyHandler);
+        this.myTileListener = new MyTileListener();
+        //Start the engine, it shows its changes through onChanges()
+        this.engine = new MoveEngine(Platform::runLater, this::onChanges);
+        this.saveWriter = new SaveWriter();
+        this.engine.saveWriter = this.saveWriter;
+        this.hints = new HintService(HintService.DEFAULT_CAPACITY);
+        EngineMetrics.start();
+        this.engine.start();
 
         onLevelLoaded();
 
@@ -0,0 +1,197 @@
+/**
+ * File header for HintService.java
+ * Description: Tells the player the next move of a shortest solution from
+ * any board, remembering the solutions it has found.
+ * name: Yuanhao Zhu
+ */
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class header: HintService
+ * A hint is the first move of the shortest solution StreamlineSolver finds
+ * from the board. The hints are cached by the Zobrist hash of the board
+ * mixed with its shape, see keyOf(), and a solve caches the hint of every
+ * board along its solution, so once a board is solved, asking again or
+ * following the hints answers with one lookup. A board that can not be
+ * passed is cached with no hint. A solve that reaches its state limit is
+ * not cached, and its Hint says it gave up, so the player is not told such
+ * a board is hopeless. The cache is a LinkedHashMap in access order that
+ * drops the least recently used hint beyond its capacity. Solves asked for
+ * with hintLater() or precompute() run one at a time on a daemon thread, so
+ * a hint asked for while the level is still being precomputed is a lookup
+ * once that solve is done. A state of a solve takes a bit per tile of the
+ * board, so the states one solve may find are capped by a share of the heap
+ * as well as by MAX_STATES, and boards of more than PRECOMPUTE_MAX_TILES
+ * tiles are not solved until a hint is asked for.
+ */
+public class HintService {
+    // the default number of boards whose hints are kept
+    static final int DEFAULT_CAPACITY = 1 << 16;
+    // the states one solve may find before it gives up
+    static final int MAX_STATES = 1 << 20;
+    // one solve may use the heap divided by this for its states
+    static final int HEAP_SHARE = 8;
+    // the bytes of a state besides its bitset: player, parent, move, hash
+    // and two slots of the table
+    static final int STATE_OVERHEAD = 25;
+    // the most tiles of a board precompute() solves
+    static final int PRECOMPUTE_MAX_TILES = 1 << 16;
+    // odd multiplier spreading the shape of a board over the cache key
+    private static final long SHAPE_GAMMA = 0x9e3779b97f4a7c15L;
+    // shift folding the high bits of the spread shape into the low ones
+    private static final int SHAPE_SHIFT = 29;
+
+    /**
+     * The answer to a request for a hint.
+     */
+    static class Hint {
+        Direction move; // the next move of a shortest solution, or null
+        boolean gaveUp; // whether the solve reached its state limit first
+
+        /**
+         * create an answer.
+         *
+         * @param move   the next move, null if there is none
+         * @param gaveUp whether the solve reached its state limit first
+         */
+        Hint(Direction move, boolean gaveUp) {
+            this.move = move;
+            this.gaveUp = gaveUp;
+        }
+    }
+
+    LinkedHashMap<Long, Direction> cache; // hint by keyOf(), null if hopeless
+    ExecutorService executor; // the solver thread
+    long hits; // the hints answered from the cache
+    long solves; // the searches run
+
+    /**
+     * create a service keeping at most the given number of hints.
+     *
+     * @param capacity the number of boards whose hints are kept
+     */
+    public HintService(int capacity) {
+        this.cache = new LinkedHashMap<Long, Direction>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<Long, Direction> eldest) {
+                return size() > capacity;
+            }
+        };
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "hint-solver");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * the next move of a shortest solution from a board, solving it if
+     * the hint is not cached. The board is not changed.
+     *
+     * @param state the board
+     * @return the hint, without a move if the level is passed, can not be
+     * passed from here, or the solve gave up, which the hint tells apart
+     */
+    Hint hint(GameState state) {
+        if (state.levelPassed) {
+            return new Hint(null, false);
+        }
+        long hash = keyOf(state);
+        synchronized (this) {
+            if (cache.containsKey(hash)) {
+                hits = hits + 1;
+                return new Hint(cache.get(hash), false);
+            }
+            solves = solves + 1;
+        }
+        StreamlineSolver solver = new StreamlineSolver(state,
+                maxStates(state));
+        List<Direction> solution = solver.solve();
+        if (solution == null) {
+            if (!solver.limitReached()) {
+                synchronized (this) {
+                    cache.put(hash, null);
+                }
+            }
+            return new Hint(null, solver.limitReached());
+        }
+        // every board on the way gets the next move of the solution
+        GameState walk = new GameState(state);
+        synchronized (this) {
+            for (Direction direction : solution) {
+                cache.put(keyOf(walk), direction);
+                walk.move(direction);
+            }
+        }
+        return new Hint(solution.isEmpty() ? null : solution.get(0), false);
+    }
+
+    /**
+     * the key of a board in the cache. The Zobrist hash covers the tiles
+     * by their flat index only, so a 3 by 4 and a 4 by 3 board with the
+     * same tiles in a row would share it; the shape is mixed in to keep
+     * them apart.
+     *
+     * @param state the board
+     * @return the Zobrist hash mixed with the height and width
+     */
+    static long keyOf(GameState state) {
+        long shape = ((long) state.height << Integer.SIZE | state.width)
+                * SHAPE_GAMMA;
+        return state.zobristHash() ^ shape ^ (shape >>> SHAPE_SHIFT);
+    }
+
+    /**
+     * the states a solve of a board may find, so that its state arrays
+     * stay within the heap share. The arrays are copied when they grow, so
+     * twice their size can be in use at once.
+     *
+     * @param state the board
+     * @return MAX_STATES, or fewer for a big board
+     */
+    static int maxStates(GameState state) {
+        long words = ((long) state.tiles.length + Long.SIZE - 1) / Long.SIZE;
+        long stateBytes = words * Long.BYTES + STATE_OVERHEAD;
+        long budget = Runtime.getRuntime().maxMemory() / HEAP_SHARE / 2;
+        return (int) Math.max(1, Math.min(MAX_STATES, budget / stateBytes));
+    }
+
+    /**
+     * find the hint for a board on the solver thread. The board is copied
+     * first, so it can be changed right away.
+     *
+     * @param state the board
+     * @return the hint once it is known, see hint()
+     */
+    CompletableFuture<Hint> hintLater(GameState state) {
+        GameState copy = new GameState(state);
+        return CompletableFuture.supplyAsync(() -> hint(copy), executor);
+    }
+
+    /**
+     * solve a board on the solver thread so its hints are cached, as when
+     * a level is loaded. Boards of more than PRECOMPUTE_MAX_TILES tiles
+     * are left alone.
+     *
+     * @param state the board, copied first
+     */
+    void precompute(GameState state) {
+        if (state.tiles.length <= PRECOMPUTE_MAX_TILES) {
+            hintLater(state);
+        }
+    }
+
+    /**
+     * stop the solver thread, solves not started yet are dropped.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,615 @@
+/**
+ * File header for LevelFormat.java
+ * Description: Reads and writes levels, both in the text format of
+ * sample_levels and in a compact binary format, through memory mapped files.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Class header: LevelFormat
+ * The text format is the height and width, the player row and column and
+ * the goal row and column on three lines, then one line of tile chars per
+ * row of the board. The binary format (version 1) is
+ *   int    magic, the bytes "SLVB"
+ *   short  version
+ *   int    height, width, playerRow, playerCol, goalRow, goalCol
+ *   byte   levelPassed, 0 or 1
+ * followed by the tiles row by row, two tiles to a byte, the first one in
+ * the low four bits. Both formats are read and written through a
+ * MappedByteBuffer, and the tiles go in and out of the flat board of the
+ * GameState without a String or a Scanner in between. save() writes the
+ * file in place, which is what the tools writing thousands of levels
+ * need. saveDurable() writes a temporary file next to the level, forces
+ * it to the disk and renames it over the level in one step, so the file
+ * holds either the old level or the new one whenever the program stops.
+ */
+public class LevelFormat {
+    // the first four bytes of a binary level, "SLVB"
+    static final int MAGIC = 0x534c5642;
+    // the current version of the binary format
+    static final short VERSION = 1;
+    // the number of bytes before the tiles of a binary level
+    static final int HEADER_SIZE = 31;
+    // file names ending in this are saved in the binary format
+    static final String BINARY_EXTENSION = ".slb";
+    // the extension of the temporary file a save is written to
+    static final String TEMP_EXTENSION = ".tmp";
+    // the tile chars in the order of their four bit codes
+    static final char[] TILE_OF_CODE = {
+        GameState.SPACE_CHAR, GameState.TRAIL_CHAR, GameState.OBSTACLE_CHAR,
+        GameState.PLAYER_CHAR, GameState.GOAL_CHAR, GameState.UP_ZAP_CHAR,
+        GameState.DOWN_ZAP_CHAR, GameState.LEFT_ZAP_CHAR,
+        GameState.RIGHT_ZAP_CHAR
+    };
+    // the four bit code of every tile char, -1 for chars that are no tile
+    private static final byte[] CODE_OF_TILE = new byte[128];
+    // the number of tiles packed into one byte
+    private static final int TILES_PER_BYTE = 2;
+    // shift of the second tile of a byte
+    private static final int CODE_BITS = 4;
+    // mask of the code of the first tile of a byte
+    private static final int CODE_MASK = 0xf;
+    // size of the buffer tiles are packed in before a bulk put
+    private static final int CHUNK_SIZE = 1 << 16;
+    // the number of numbers at the top of a text level
+    private static final int TEXT_HEADER_NUMBERS = 6;
+    // the height and width of the level of checkFailedSave()
+    private static final int CHECK_SIZE = 4;
+
+    static {
+        Arrays.fill(CODE_OF_TILE, (byte) -1);
+        for (int code = 0; code < TILE_OF_CODE.length; code++) {
+            CODE_OF_TILE[TILE_OF_CODE[code]] = (byte) code;
+        }
+    }
+
+    /**
+     * load a level in either format, told apart by the first bytes.
+     *
+     * @param filename the file to read
+     * @return the state saved in the file
+     * @throws IOException if the file can not be read or is broken
+     */
+    static GameState load(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() >= Integer.BYTES
+                    && buffer.getInt(0) == MAGIC) {
+                return decode(buffer);
+            }
+            return parseText(buffer);
+        }
+    }
+
+    /**
+     * save a level, in the binary format if the file name ends in
+     * BINARY_EXTENSION and in the text format otherwise. The file is
+     * written in place, see saveDurable() for saves that must survive a
+     * crash.
+     *
+     * @param state    the state to save
+     * @param filename the file to write, replaced if it exists
+     * @throws IOException if the file can not be written
+     */
+    static void save(GameState state, String filename) throws IOException {
+        save(state, filename, false);
+    }
+
+    /**
+     * save a level like save(), but through a temporary file next to it
+     * that is forced to the disk and renamed over it in one step, so the
+     * file holds either the old level or the new one whenever the program
+     * stops. This costs a disk flush, about a millisecond, so it is meant
+     * for the games the player saves and not for bulk writes.
+     *
+     * @param state    the state to save
+     * @param filename the file to write, replaced if it exists
+     * @throws IOException if the file can not be written
+     */
+    static void saveDurable(GameState state, String filename)
+            throws IOException {
+        save(state, filename, true);
+    }
+
+    /**
+     * save a level, timed and recorded as an event.
+     *
+     * @param state    the state to save
+     * @param filename the file to write, replaced if it exists
+     * @param durable  whether to go through a forced temporary file
+     * @throws IOException if the file can not be written
+     */
+    private static void save(GameState state, String filename,
+                             boolean durable) throws IOException {
+        EngineEvents.SaveEvent event = new EngineEvents.SaveEvent();
+        event.begin();
+        boolean timed = EngineMetrics.enabled;
+        long start = timed ? System.nanoTime() : 0;
+        long allocated = EngineMetrics.allocatedBytes();
+        boolean binary = filename.endsWith(BINARY_EXTENSION);
+        write(state, Paths.get(filename), binary, durable);
+        if (timed) {
+            EngineMetrics.recordAllocated(EngineMetrics.GLOBAL.saveBytes,
+                    allocated);
+            EngineMetrics.GLOBAL.save.record(System.nanoTime() - start);
+        }
+        if (event.shouldCommit()) {
+            event.file = filename;
+            event.binary = binary;
+            event.boardWidth = state.width;
+            event.boardHeight = state.height;
+            event.commit();
+        }
+    }
+
+    /**
+     * write a file to a new temporary file next to the target, force it
+     * and rename it over the target. The temporary file is created like
+     * any other file, so the save gets the usual permissions, and it is
+     * deleted again if anything fails before the rename.
+     *
+     * @param target the file to replace
+     * @param size   the number of bytes of the file
+     * @param writer fills the mapped temporary file
+     * @throws IOException if the file can not be written
+     */
+    static void replace(Path target, long size, MappedWriter writer)
+            throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path path = null;
+        try {
+            // a name no other save is using, the level is created new
+            boolean written = false;
+            while (!written) {
+                path = absolute.resolveSibling("."
+                        + absolute.getFileName() + "."
+                        + Long.toHexString(
+                                ThreadLocalRandom.current().nextLong())
+                        + TEMP_EXTENSION);
+                try {
+                    writeMapped(path, size, writer, true);
+                    written = true;
+                } catch (FileAlreadyExistsException e) {
+                    // taken by another save, draw another name
+                    path = null;
+                }
+            }
+            try {
+                Files.move(path, absolute, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(path, absolute,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            // gone after the rename, a partly written file otherwise
+            if (path != null) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    /**
+     * write a level to a file.
+     *
+     * @param state   the state to write
+     * @param path    the file
+     * @param binary  whether to use the binary format
+     * @param durable whether to go through a forced temporary file, see
+     *                replace()
+     * @throws IOException if the file can not be written
+     */
+    private static void write(GameState state, Path path, boolean binary,
+                              boolean durable) throws IOException {
+        long size;
+        MappedWriter writer;
+        if (binary) {
+            size = binarySize(state.height, state.width);
+            writer = buffer -> encode(state, buffer);
+        } else {
+            byte[] header = textHeader(state);
+            size = header.length + (long) state.height * (state.width + 1);
+            writer = buffer -> {
+                buffer.put(header);
+                // the tiles already are the bytes of their chars
+                for (int i = 0; i < state.height; i++) {
+                    buffer.put(state.tiles, i * state.width, state.width);
+                    buffer.put((byte) GameState.NEWLINE_CHAR);
+                }
+            };
+        }
+        if (durable) {
+            replace(path, size, writer);
+        } else {
+            writeMapped(path, size, writer, false);
+        }
+    }
+
+    /**
+     * the number of bytes of a binary level.
+     *
+     * @param height the height of the board
+     * @param width  the width of the board
+     * @return the size of the header and the packed tiles
+     */
+    static int binarySize(int height, int width) {
+        long tiles = (long) height * width;
+        return (int) (HEADER_SIZE + (tiles + 1) / TILES_PER_BYTE);
+    }
+
+    /**
+     * write a state in the binary format at the position of the buffer.
+     *
+     * @param state  the state to write
+     * @param buffer the buffer with binarySize() bytes remaining
+     */
+    static void encode(GameState state, ByteBuffer buffer) {
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putInt(state.height);
+        buffer.putInt(state.width);
+        buffer.putInt(state.playerRow);
+        buffer.putInt(state.playerCol);
+        buffer.putInt(state.goalRow);
+        buffer.putInt(state.goalCol);
+        buffer.put((byte) (state.levelPassed ? 1 : 0));
+        byte[] tiles = state.tiles;
+        byte[] chunk = new byte[Math.min(CHUNK_SIZE,
+                (tiles.length + 1) / TILES_PER_BYTE)];
+        int used = 0;
+        for (int i = 0; i < tiles.length; i = i + TILES_PER_BYTE) {
+            int code = CODE_OF_TILE[tiles[i]];
+            if (i + 1 < tiles.length) {
+                code = code | CODE_OF_TILE[tiles[i + 1]] << CODE_BITS;
+            }
+            chunk[used] = (byte) code;
+            used = used + 1;
+            if (used == chunk.length) {
+                buffer.put(chunk, 0, used);
+                used = 0;
+            }
+        }
+        buffer.put(chunk, 0, used);
+    }
+
+    /**
+     * read a state in the binary format from the position of the buffer.
+     *
+     * @param buffer the buffer holding the level
+     * @return the state
+     * @throws IOException if the level is broken or of another version
+     */
+    static GameState decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("not a binary level");
+        }
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new IOException("unknown binary level version " + version);
+        }
+        int height = buffer.getInt();
+        int width = buffer.getInt();
+        int playerRow = buffer.getInt();
+        int playerCol = buffer.getInt();
+        int goalRow = buffer.getInt();
+        int goalCol = buffer.getInt();
+        boolean passed = buffer.get() != 0;
+        checkShape(height, width, playerRow, playerCol, goalRow, goalCol);
+        int count = binarySize(height, width) - HEADER_SIZE;
+        if (buffer.remaining() < count) {
+            throw new IOException("binary level is cut short");
+        }
+        byte[] tiles = new byte[height * width];
+        byte[] chunk = new byte[Math.min(CHUNK_SIZE, count)];
+        int next = 0;
+        while (count > 0) {
+            int length = Math.min(chunk.length, count);
+            buffer.get(chunk, 0, length);
+            for (int k = 0; k < length; k++) {
+                tiles[next] = tileOf(chunk[k] & CODE_MASK);
+                next = next + 1;
+                if (next < tiles.length) {
+                    tiles[next] = tileOf((chunk[k] >> CODE_BITS) & CODE_MASK);
+                    next = next + 1;
+                }
+            }
+            count = count - length;
+        }
+        GameState state = new GameState(height, width, playerRow, playerCol,
+                goalRow, goalCol);
+        state.replaceTiles(tiles);
+        state.levelPassed = passed;
+        return state;
+    }
+
+    /**
+     * read a state in the text format. Rows shorter than the board are
+     * filled up with SPACE_CHAR, and a carriage return before a newline is
+     * dropped.
+     *
+     * @param buffer the buffer holding the level
+     * @return the state
+     * @throws IOException if the numbers at the top are missing
+     */
+    static GameState parseText(ByteBuffer buffer) throws IOException {
+        int[] numbers = new int[TEXT_HEADER_NUMBERS];
+        for (int n = 0; n < numbers.length; n++) {
+            while (buffer.hasRemaining()
+                    && Character.isWhitespace(buffer.get(buffer.position()))) {
+                buffer.get();
+            }
+            if (!buffer.hasRemaining()) {
+                throw new IOException("text level is missing its header");
+            }
+            int value = 0;
+            int digits = 0;
+            while (buffer.hasRemaining()
+                    && Character.isDigit(buffer.get(buffer.position()))) {
+                value = value * 10 + (buffer.get() - '0');
+                digits = digits + 1;
+            }
+            if (digits == 0) {
+                throw new IOException("text level header is not a number");
+            }
+            numbers[n] = value;
+        }
+        // skip the rest of the third line
+        while (buffer.hasRemaining()
+                && buffer.get() != GameState.NEWLINE_CHAR) {
+            continue;
+        }
+        int height = numbers[0];
+        int width = numbers[1];
+        checkShape(height, width, numbers[2], numbers[3], numbers[4],
+                numbers[5]);
+        GameState state = new GameState(height, width, numbers[2],
+                numbers[3], numbers[4], numbers[5]);
+        byte[] tiles = new byte[height * width];
+        Arrays.fill(tiles, (byte) GameState.SPACE_CHAR);
+        for (int i = 0; i < height && buffer.hasRemaining(); i++) {
+            int start = buffer.position();
+            int end = start;
+            while (end < buffer.limit()
+                    && buffer.get(end) != GameState.NEWLINE_CHAR) {
+                end = end + 1;
+            }
+            int length = end - start;
+            if (length > 0 && buffer.get(end - 1) == '\r') {
+                length = length - 1;
+            }
+            buffer.get(tiles, i * width, Math.min(length, width));
+            buffer.position(Math.min(end + 1, buffer.limit()));
+        }
+        for (byte tile : tiles) {
+            if (tile < 0 || CODE_OF_TILE[tile] < 0) {
+                throw new IOException("unknown tile '" + (char) tile + "'");
+            }
+        }
+        state.replaceTiles(tiles);
+        return state;
+    }
+
+    /**
+     * the three header lines of a text level.
+     *
+     * @param state the state to write
+     * @return the bytes of the header
+     */
+    private static byte[] textHeader(GameState state) {
+        String header = state.height + " " + state.width + "\n"
+                + state.playerRow + " " + state.playerCol + "\n"
+                + state.goalRow + " " + state.goalCol + "\n";
+        byte[] bytes = new byte[header.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) header.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the content of a file into a mapped buffer.
+     */
+    interface MappedWriter {
+        /**
+         * fill the buffer.
+         *
+         * @param buffer the mapped file
+         */
+        void write(MappedByteBuffer buffer);
+    }
+
+    /**
+     * create or replace a file of the given size and fill it through a
+     * memory mapping.
+     *
+     * @param path    the file
+     * @param size    the number of bytes of the file
+     * @param writer  fills the mapped file
+     * @param durable whether the file must not exist yet and is forced to
+     *                the disk before this returns
+     * @throws IOException if the file can not be written, a
+     * FileAlreadyExistsException if durable and it exists
+     */
+    static void writeMapped(Path path, long size, MappedWriter writer,
+                            boolean durable) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                durable ? StandardOpenOption.CREATE_NEW
+                        : StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, size);
+            writer.write(buffer);
+            if (durable) {
+                buffer.force();
+            }
+        }
+    }
+
+    /**
+     * the tile of a four bit code.
+     *
+     * @param code the code
+     * @return the byte value of the tile char
+     * @throws IOException if the code is no tile
+     */
+    private static byte tileOf(int code) throws IOException {
+        if (code >= TILE_OF_CODE.length) {
+            throw new IOException("unknown tile code " + code);
+        }
+        return (byte) TILE_OF_CODE[code];
+    }
+
+    /**
+     * make sure the numbers at the top of a level describe a board.
+     *
+     * @param height    the height of the board
+     * @param width     the width of the board
+     * @param playerRow the row of the player
+     * @param playerCol the column of the player
+     * @param goalRow   the row of the goal
+     * @param goalCol   the column of the goal
+     * @throws IOException if the board is empty, too big, or the player or
+     * goal is off the board
+     */
+    private static void checkShape(int height, int width, int playerRow,
+                                   int playerCol, int goalRow, int goalCol)
+            throws IOException {
+        if (height <= 0 || width <= 0
+                || (long) height * width > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IOException("bad board size " + height + "x" + width);
+        }
+        if (playerRow < 0 || playerRow >= height || playerCol < 0
+                || playerCol >= width || goalRow < 0 || goalRow >= height
+                || goalCol < 0 || goalCol >= width) {
+            throw new IOException("player or goal is off the board");
+        }
+    }
+
+    /**
+     * play every level with a random script and check that it saves and
+     * loads back equal, in both formats and with both save() and
+     * saveDurable().
+     *
+     * @param levels the levels
+     * @return true if every level came back equal
+     * @throws IOException if a level can not be read or written
+     */
+    static boolean checkRoundTrip(List<BatchRunner.LevelRef> levels)
+            throws IOException {
+        SplittableRandom random = new SplittableRandom(
+                BatchRunner.CHECK_SEED);
+        boolean same = true;
+        for (BatchRunner.LevelRef ref : levels) {
+            Streamline game = new Streamline(ref.load());
+            String script = BatchRunner.randomScript(random,
+                    BatchRunner.CHECK_INPUTS);
+            for (int i = 0; i < script.length(); i++) {
+                BatchRunner.apply(game, script.charAt(i));
+            }
+            for (String extension : new String[] {".txt", BINARY_EXTENSION}) {
+                // the text format does not keep levelPassed, a text level
+                // is passed if its player is on the goal
+                GameState expected = new GameState(game.currentState);
+                if (!extension.equals(BINARY_EXTENSION)) {
+                    expected.levelPassed = expected.playerRow
+                            == expected.goalRow
+                            && expected.playerCol == expected.goalCol;
+                }
+                Path file = Files.createTempFile("level", extension);
+                save(game.currentState, file.toString());
+                same = same && load(file.toString()).equals(expected);
+                saveDurable(game.currentState, file.toString());
+                same = same && load(file.toString()).equals(expected);
+                Files.delete(file);
+            }
+        }
+        return same;
+    }
+
+    /**
+     * make a durable save fail halfway through writing its temporary file
+     * and check that the file is deleted and the level left as it was.
+     *
+     * @return true if only the level is left in its directory, unchanged
+     * @throws IOException if the directory can not be written
+     */
+    static boolean checkFailedSave() throws IOException {
+        Path dir = Files.createTempDirectory("level");
+        Path level = dir.resolve("level" + BINARY_EXTENSION);
+        GameState state = new GameState(CHECK_SIZE, CHECK_SIZE, 0, 0,
+                CHECK_SIZE - 1, CHECK_SIZE - 1);
+        save(state, level.toString());
+        boolean failed = false;
+        try {
+            replace(level, binarySize(CHECK_SIZE, CHECK_SIZE), buffer -> {
+                buffer.putInt(MAGIC);
+                // as a full disk would fail the write
+                throw new UncheckedIOException(
+                        new IOException("no space left on device"));
+            });
+        } catch (UncheckedIOException e) {
+            failed = true;
+        }
+        String[] left = dir.toFile().list();
+        boolean clean = failed && left.length == 1
+                && load(level.toString()).equals(state);
+        Files.delete(level);
+        for (String name : left) {
+            Files.deleteIfExists(dir.resolve(name));
+        }
+        Files.delete(dir);
+        return clean;
+    }
+
+    /**
+     * convert a level between the formats, the format of the output picked
+     * by its file name, or check the round trip of levels with -check.
+     *
+     * @param args the input level and the output level, or -check and the
+     *             levels
+     * @throws IOException if a file can not be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("-check")) {
+            List<BatchRunner.LevelRef> levels =
+                    BatchRunner.levelsOf(args[1]);
+            System.out.println("save and load of " + levels.size()
+                    + " levels: " + (checkRoundTrip(levels) ? "ok"
+                    : "FAILED"));
+            System.out.println("no temporary file after a failed save: "
+                    + (checkFailedSave() ? "ok" : "FAILED"));
+            return;
+        }
+        if (args.length != 2) {
+            System.out.println("Usage: java LevelFormat <input level> "
+                    + "<output level>\n  an output name ending in "
+                    + BINARY_EXTENSION + " is written in the binary format"
+                    + "\n       java LevelFormat -check <level file, "
+                    + "directory or pack>\n  plays the levels at random and "
+                    + "checks that they save and load back equal,\n  and "
+                    + "that a failed save leaves no temporary file");
+            return;
+        }
+        save(load(args[0]), args[1]);
+    }
+}
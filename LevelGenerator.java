@@ -0,0 +1,265 @@
+/**
+ * File header for LevelGenerator.java
+ * Description: Generates random levels that are checked to be solvable,
+ * on several threads, and writes them in the level file format.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Class header: LevelGenerator
+ * A level is a board with the player in the bottom left corner, the goal in
+ * the top right corner, and random obstacles and zappers. Boards that the
+ * solver can not pass, or that pass in fewer than a minimum number of
+ * moves, are thrown away and drawn again. Level number k is drawn from a
+ * SplittableRandom seeded from the seed and k, so a seed always gives the
+ * same levels no matter how many threads generate them. The obstacles and
+ * zappers have to fit in the empty cells of the board, and a level that
+ * is still not found after MAX_ATTEMPTS boards stops the generator with an
+ * error, as happens when minMoves is more than such a board can take.
+ */
+public class LevelGenerator {
+    // the limit on the number of solver states for one board
+    static final int MAX_STATES = 1 << 16;
+    // the boards drawn for one level before giving up on it
+    static final int MAX_ATTEMPTS = 1 << 16;
+    // odd multiplier spreading the level number over the seed
+    private static final long SEED_GAMMA = 0x9e3779b97f4a7c15L;
+    // width of the zero padded level number in the file names
+    private static final int NAME_DIGITS = 6;
+
+    static final String USAGE =
+        "Usage: java LevelGenerator <directory> <count> [height width " +
+        "obstacles zappers [minMoves [seed [threads]]]]\n";
+
+    int height; // the height of the boards
+    int width; // the width of the boards
+    int obstacles; // the number of obstacles of every board
+    int zappers; // the number of zappers of every board
+    int minMoves; // the fewest moves a kept level may take
+    long seed; // the seed all levels are drawn from
+
+    /**
+     * create a generator for boards of the given shape.
+     *
+     * @param height    the height of the boards
+     * @param width     the width of the boards
+     * @param obstacles the number of obstacles of every board
+     * @param zappers   the number of zappers of every board
+     * @param minMoves  the fewest moves a kept level may take
+     * @param seed      the seed all levels are drawn from
+     */
+    public LevelGenerator(int height, int width, int obstacles, int zappers,
+                          int minMoves, long seed) {
+        this.height = height;
+        this.width = width;
+        this.obstacles = obstacles;
+        this.zappers = zappers;
+        this.minMoves = minMoves;
+        this.seed = seed;
+    }
+
+    /**
+     * draw level number k.
+     *
+     * @param k        the number of the level
+     * @param attempts counts the boards drawn, kept or not
+     * @return the first solvable board drawn for k
+     */
+    GameState level(long k, AtomicLong attempts) {
+        return randomLevel(height, width, obstacles, zappers, minMoves,
+                new SplittableRandom(seed + k * SEED_GAMMA), attempts);
+    }
+
+    /**
+     * check that the obstacles and zappers fit on a board, beside the
+     * player and the goal.
+     *
+     * @param height    the height of the board
+     * @param width     the width of the board
+     * @param obstacles the number of obstacles
+     * @param zappers   the number of zappers
+     * @return what is wrong with the numbers, null if they are fine
+     */
+    static String checkCounts(int height, int width, int obstacles,
+                              int zappers) {
+        if (height < 1 || width < 1 || height * width < 2) {
+            return "a board of " + height + "x" + width
+                    + " has no room for the player and the goal";
+        }
+        if (obstacles < 0 || zappers < 0) {
+            return "the numbers of obstacles and zappers can not be "
+                    + "negative";
+        }
+        int free = height * width - 2;
+        if ((long) obstacles + zappers > free) {
+            return obstacles + " obstacles and " + zappers
+                    + " zappers do not fit in the " + free
+                    + " free cells of a " + height + "x" + width + " board";
+        }
+        return null;
+    }
+
+    /**
+     * draw boards until one of them is solvable in at least minMoves moves.
+     *
+     * @param height    the height of the board
+     * @param width     the width of the board
+     * @param obstacles the number of obstacles
+     * @param zappers   the number of zappers
+     * @param minMoves  the fewest moves the level may take
+     * @param random    the random generator to draw from
+     * @param attempts  counts the boards drawn, may be null
+     * @return the first board that passes the check
+     * @throws IllegalArgumentException if the tiles do not fit, see
+     * checkCounts()
+     * @throws IllegalStateException if none of MAX_ATTEMPTS boards passes
+     */
+    static GameState randomLevel(int height, int width, int obstacles,
+                                 int zappers, int minMoves,
+                                 SplittableRandom random, AtomicLong attempts) {
+        String problem = checkCounts(height, width, obstacles, zappers);
+        if (problem != null) {
+            throw new IllegalArgumentException(problem);
+        }
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (attempts != null) {
+                attempts.incrementAndGet();
+            }
+            GameState state = new GameState(height, width, height - 1, 0,
+                    0, width - 1);
+            state.addRandomTiles(obstacles, zappers, random);
+            List<Direction> solution =
+                    new StreamlineSolver(state, MAX_STATES).solve();
+            if (solution != null && solution.size() >= minMoves) {
+                return state;
+            }
+        }
+        throw new IllegalStateException("none of " + MAX_ATTEMPTS
+                + " boards of " + height + "x" + width + " with " + obstacles
+                + " obstacles and " + zappers + " zappers is solvable in at "
+                + "least " + minMoves + " moves");
+    }
+
+    /**
+     * generate levels 1 to count on the given number of threads and write
+     * every one of them to its own file in the directory. If a level can
+     * not be found the threads stop taking new levels.
+     *
+     * @param directory the directory the level files go to
+     * @param count     the number of levels
+     * @param threads   the number of threads generating levels
+     * @return the number of boards drawn, kept or not
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if a level could not be found, see
+     * randomLevel()
+     */
+    long generate(File directory, int count, int threads)
+            throws InterruptedException {
+        AtomicInteger next = new AtomicInteger(1);
+        AtomicLong attempts = new AtomicLong();
+        AtomicReference<IllegalStateException> failure =
+                new AtomicReference<>();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            workers.execute(() -> {
+                for (int k = next.getAndIncrement(); k <= count;
+                     k = next.getAndIncrement()) {
+                    GameState state;
+                    try {
+                        state = level(k, attempts);
+                    } catch (IllegalStateException e) {
+                        failure.compareAndSet(null, e);
+                        // no thread takes another level
+                        next.set(count + 1);
+                        return;
+                    }
+                    File file = new File(directory, String.format(
+                            "level%0" + NAME_DIGITS + "d", k));
+                    try {
+                        LevelFormat.save(state, file.toString());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return attempts.get();
+    }
+
+    /**
+     * generate the levels asked for on the command line.
+     *
+     * @param args see USAGE
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length != 2 && (args.length < 6 || args.length > 9)) {
+            System.out.print(USAGE);
+            return;
+        }
+        File directory = new File(args[0]);
+        int count = Integer.parseInt(args[1]);
+        int height = Streamline.DEFAULT_HEIGHT;
+        int width = Streamline.DEFAULT_WIDTH;
+        int obstacles = Streamline.DEFAULT_OBSTACLES;
+        int zappers = Streamline.DEFAULT_ZAPPERS;
+        int minMoves = 1;
+        long seed = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (args.length >= 6) {
+            height = Integer.parseInt(args[2]);
+            width = Integer.parseInt(args[3]);
+            obstacles = Integer.parseInt(args[4]);
+            zappers = Integer.parseInt(args[5]);
+        }
+        if (args.length >= 7) {
+            minMoves = Integer.parseInt(args[6]);
+        }
+        if (args.length >= 8) {
+            seed = Long.parseLong(args[7]);
+        }
+        if (args.length >= 9) {
+            threads = Integer.parseInt(args[8]);
+        }
+        String problem = checkCounts(height, width, obstacles, zappers);
+        if (problem != null) {
+            System.out.printf("%s. Exiting...\n", problem);
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.out.printf("Can not create directory %s. Exiting...\n",
+                    args[0]);
+            return;
+        }
+        LevelGenerator generator = new LevelGenerator(height, width,
+                obstacles, zappers, minMoves, seed);
+        long begin = System.nanoTime();
+        long attempts;
+        try {
+            attempts = generator.generate(directory, count, threads);
+        } catch (IllegalStateException e) {
+            System.out.printf("%s. Exiting...\n", e.getMessage());
+            return;
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        System.out.printf("Generated %d levels from %d boards in %.2f s "
+                + "(%.0f levels/min, seed %d)\n", count, attempts, seconds,
+                count * 60 / seconds, seed);
+    }
+}
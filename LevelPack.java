@@ -0,0 +1,247 @@
+/**
+ * File header for LevelPack.java
+ * Description: Many levels in one file, with an index so that any level can
+ * be read by its number through a memory mapped file.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Class header: LevelPack
+ * A level pack (version 1) is
+ *   int    magic, the bytes "SLVP"
+ *   short  version
+ *   int    count, the number of levels
+ *   long   offset of every level in the file, and one more for the end
+ * followed by the levels in the binary format of LevelFormat, one after
+ * the other. Level i takes the bytes from offset i up to offset i + 1, so
+ * finding it is two reads from the index. A pack that fits in one mapping
+ * is mapped once when it is opened; a bigger one maps every level as it is
+ * read. Reading levels from several threads at once is safe.
+ */
+public class LevelPack implements Closeable {
+    // the first four bytes of a level pack, "SLVP"
+    static final int MAGIC = 0x534c5650;
+    // the current version of the pack format
+    static final short VERSION = 1;
+    // the number of bytes before the index
+    static final int HEADER_SIZE = 10;
+
+    FileChannel channel; // the open pack file
+    ByteBuffer whole; // the whole file, null if it is too big to map once
+    ByteBuffer index; // the offsets of the levels
+    int count; // the number of levels
+
+    /**
+     * open a level pack for reading.
+     *
+     * @param filename the pack file
+     * @throws IOException if the file can not be read or is no pack
+     */
+    public LevelPack(String filename) throws IOException {
+        this.channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(filename + " is not a level pack");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(filename + " is not a level pack");
+            }
+            short version = header.getShort();
+            if (version != VERSION) {
+                throw new IOException("unknown level pack version "
+                        + version);
+            }
+            this.count = header.getInt();
+            long indexSize = (count + 1L) * Long.BYTES;
+            if (count < 0 || HEADER_SIZE + indexSize > size) {
+                throw new IOException("level pack index is cut short");
+            }
+            if (size <= Integer.MAX_VALUE) {
+                this.whole = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        size);
+                this.index = whole.duplicate().position(HEADER_SIZE)
+                        .slice();
+            } else {
+                this.index = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE, indexSize);
+            }
+            if (index.getLong(count * Long.BYTES) > size) {
+                throw new IOException("level pack is cut short");
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * check if a file starts like a level pack.
+     *
+     * @param filename the file
+     * @return true if it is a level pack
+     */
+    static boolean isPack(String filename) {
+        File file = new File(filename);
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            while (magic.hasRemaining() && in.read(magic) >= 0) {
+                continue;
+            }
+            return magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * getter for the number of levels in the pack.
+     *
+     * @return the number of levels
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * read level number i.
+     *
+     * @param i the number of the level, from 0 to size() - 1
+     * @return the state of the level
+     * @throws IOException if the level is broken
+     */
+    GameState level(int i) throws IOException {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("level " + i + " of "
+                    + count);
+        }
+        long from = index.getLong(i * Long.BYTES);
+        long to = index.getLong((i + 1) * Long.BYTES);
+        if (from < HEADER_SIZE || to < from
+                || to - from > Integer.MAX_VALUE) {
+            throw new IOException("bad offset of level " + i);
+        }
+        ByteBuffer record;
+        if (whole != null) {
+            record = whole.duplicate().limit((int) to).position((int) from);
+        } else {
+            record = channel.map(FileChannel.MapMode.READ_ONLY, from,
+                    to - from);
+        }
+        return LevelFormat.decode(record);
+    }
+
+    /**
+     * start a game of level number i.
+     *
+     * @param i the number of the level, from 0 to size() - 1
+     * @return the game, null if the level is broken
+     */
+    Streamline game(int i) {
+        try {
+            return new Streamline(level(i));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * close the pack file. Levels already read stay valid.
+     *
+     * @throws IOException if the file can not be closed
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * write the given level files into one pack, one level at a time.
+     *
+     * @param files    the level files, in either format of LevelFormat
+     * @param filename the pack file, replaced if it exists
+     * @throws IOException if a level can not be read or the pack written
+     */
+    static void write(File[] files, String filename) throws IOException {
+        long[] offsets = new long[files.length + 1];
+        try (FileChannel out = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = HEADER_SIZE + (long) offsets.length * Long.BYTES;
+            ByteBuffer record = ByteBuffer.allocate(0);
+            for (int i = 0; i < files.length; i++) {
+                GameState state = LevelFormat.load(files[i].toString());
+                int size = LevelFormat.binarySize(state.height, state.width);
+                if (record.capacity() < size) {
+                    record = ByteBuffer.allocate(size);
+                }
+                record.clear().limit(size);
+                LevelFormat.encode(state, record);
+                record.flip();
+                offsets[i] = position;
+                position = position + writeFully(out, record, position);
+            }
+            offsets[files.length] = position;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE
+                    + offsets.length * Long.BYTES);
+            header.putInt(MAGIC).putShort(VERSION).putInt(files.length);
+            header.asLongBuffer().put(offsets);
+            writeFully(out, header, 0);
+        }
+    }
+
+    /**
+     * write all of a buffer at a position of a file.
+     *
+     * @param out      the file
+     * @param buffer   the bytes to write, from position to limit
+     * @param position where in the file they go
+     * @return the number of bytes written
+     * @throws IOException if the file can not be written
+     */
+    private static int writeFully(FileChannel out, ByteBuffer buffer,
+                                  long position) throws IOException {
+        int written = 0;
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            written = written + out.write(buffer, position + written);
+        }
+        return written;
+    }
+
+    /**
+     * pack the level files of a directory, in the order of their names.
+     *
+     * @param args the directory and the pack file
+     * @throws IOException if a level can not be read or the pack written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 || !new File(args[0]).isDirectory()) {
+            System.out.println("Usage: java LevelPack <level directory> "
+                    + "<pack file>");
+            return;
+        }
+        File[] files = new File(args[0]).listFiles(File::isFile);
+        Arrays.sort(files);
+        long begin = System.nanoTime();
+        write(files, args[1]);
+        System.out.printf("Packed %d levels into %s in %.2f s\n",
+                files.length, args[1], (System.nanoTime() - begin) / 1e9);
+    }
+}
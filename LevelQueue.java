@@ -0,0 +1,138 @@
+/**
+ * File header for LevelQueue.java
+ * Description: A queue of levels that are loaded only when they are close
+ * to being played, on a background thread.
+ * name: Yuanhao Zhu
+ */
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+/**
+ * Class header: LevelQueue
+ * Levels 0 to count - 1 are handed out in order by poll(). Only the next
+ * few levels are ever loaded ahead, by a single daemon thread, while the
+ * current level is being played; the queue keeps no reference to a level
+ * once it has been handed out, so finished levels can be collected. A level
+ * asked for before anything was prefetched, like the very first one, is
+ * loaded right away on the calling thread. Levels that fail to load are
+ * skipped, so poll() only runs out at the end of the queue.
+ */
+public class LevelQueue {
+    // the number of levels loaded ahead by default
+    static final int DEFAULT_PREFETCH = 4;
+
+    int count; // the number of levels
+    int next; // the number of the next level to start loading
+    int current; // the number of the level poll() handed out last, or -1
+    int prefetch; // the number of levels loaded ahead
+    IntFunction<Streamline> loader; // loads a level from its number
+    ArrayDeque<Future<Streamline>> pending; // levels being loaded, in order
+    ExecutorService executor; // the background loading thread
+
+    /**
+     * create a queue of levels that are loaded by number.
+     *
+     * @param count    the number of levels
+     * @param loader   loads level number i, from 0 to count - 1
+     * @param prefetch the number of levels loaded ahead
+     */
+    public LevelQueue(int count, IntFunction<Streamline> loader,
+                      int prefetch) {
+        this.count = count;
+        this.loader = loader;
+        this.prefetch = prefetch;
+        this.next = 0;
+        this.current = -1;
+        this.pending = new ArrayDeque<Future<Streamline>>(prefetch);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "level-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * the number of levels not handed out yet.
+     *
+     * @return the number of levels left
+     */
+    int size() {
+        return count - next + pending.size();
+    }
+
+    /**
+     * check if every level has been handed out.
+     *
+     * @return true if there is no level left
+     */
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * hand out the next level that loads and start loading the ones after
+     * it. A level that fails to load, throwing or without a board, is
+     * skipped with a message.
+     *
+     * @return the next level, null if there is none left or the thread was
+     * interrupted while waiting for it
+     */
+    Streamline poll() {
+        while (!isEmpty()) {
+            // the number of the level handed out now
+            int number = next - pending.size();
+            Streamline level = null;
+            if (!pending.isEmpty()) {
+                Future<Streamline> head = pending.poll();
+                fill();
+                try {
+                    level = head.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
+            } else {
+                try {
+                    level = loader.apply(next);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                next++;
+                fill();
+            }
+            if (level != null && level.currentState != null) {
+                current = number;
+                return level;
+            }
+            System.err.printf("Skipping level %d of %d, it could not be "
+                    + "loaded\n", number + 1, count);
+        }
+        return null;
+    }
+
+    /**
+     * stop the background thread, levels being loaded are dropped.
+     */
+    void shutdown() {
+        executor.shutdownNow();
+        pending.clear();
+    }
+
+    /**
+     * start loading levels until prefetch of them are pending.
+     */
+    private void fill() {
+        while (pending.size() < prefetch && next < count) {
+            int k = next;
+            pending.add(executor.submit(() -> loader.apply(k)));
+            next++;
+        }
+    }
+}
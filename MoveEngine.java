@@ -0,0 +1,326 @@
+/**
+ * File header for MoveEngine.java
+ * Description: Runs the moves of a game on a thread of its own and hands
+ * what they changed to the GUI thread in batches.
+ * name: Yuanhao Zhu
+ */
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Class header: MoveEngine
+ * Keys are the commands of play(): w, a, s and d move, u undoes, r redoes
+ * and o saves. The GUI thread only offers keys to a bounded queue, and a
+ * full queue drops the key, so a held key can never build up a backlog.
+ * The engine thread takes the keys, applies them to the game, and collects
+ * the tiles they changed through the TileChangeListener of the board. A
+ * move in the same direction as the last move, when that one changed
+ * nothing and nothing changed since, changes nothing either and is
+ * skipped. After every batch of keys the engine publishes one ChangeSet,
+ * and the sets are delivered to the GUI thread by the given executor,
+ * with a single delivery scheduled at a time however many sets are
+ * waiting. Once a level is passed its keys are ignored until setGame()
+ * hands the engine the next one. A key that throws is reported and does
+ * not end the engine thread.
+ */
+public class MoveEngine implements TileChangeListener {
+    // the number of keys that can wait for the engine
+    static final int QUEUE_CAPACITY = 64;
+    // the most keys applied before their changes are published
+    static final int MAX_BATCH = 64;
+    // starting capacity of the changed tile arrays
+    private static final int INITIAL_CAPACITY = 256;
+    // no direction is known to be a no-op
+    private static final char NO_KEY = 0;
+    // queued by stop(), the engine thread ends when it gets to it
+    private static final char STOP_KEY = 1;
+
+    /**
+     * What a batch of keys changed, never modified after it is published.
+     */
+    static class ChangeSet {
+        final Streamline game; // the game the keys were applied to
+        final int[] cells; // the flat index of every tile written, in order
+        final byte[] tiles; // the tile written to every cell
+        final GameState board; // a copy of the whole board, or null
+        final int playerRow; // the row of the player after the batch
+        final int playerCol; // the column of the player after the batch
+        final boolean levelPassed; // levelPassed after the batch
+
+        /**
+         * create a change set.
+         *
+         * @param game   the game the keys were applied to
+         * @param cells  the flat index of every tile written
+         * @param tiles  the tile written to every cell
+         * @param board  a copy of the whole board if it was replaced
+         * @param state  the board after the batch
+         */
+        ChangeSet(Streamline game, int[] cells, byte[] tiles,
+                  GameState board, GameState state) {
+            this.game = game;
+            this.cells = cells;
+            this.tiles = tiles;
+            this.board = board;
+            this.playerRow = state.playerRow;
+            this.playerCol = state.playerCol;
+            this.levelPassed = state.levelPassed;
+        }
+    }
+
+    ArrayBlockingQueue<Character> keys; // keys waiting for the engine
+    volatile Streamline game; // the game keys are applied to
+    SaveWriter saveWriter; // writes the saves of o, null to save right away
+    Executor deliverer; // runs deliveries on the GUI thread
+    Consumer<ChangeSet> receiver; // shows a change set, on the GUI thread
+    ConcurrentLinkedQueue<ChangeSet> published; // sets not delivered yet
+    AtomicBoolean scheduled; // whether a delivery is on its way
+    Thread thread; // the engine thread
+    volatile boolean stopping; // whether stop() was called
+    Streamline applying; // the game of the batch being applied
+    int[] cells; // the cells written in the current batch
+    byte[] tiles; // the tiles written in the current batch
+    int count; // the number of cells written in the current batch
+    boolean wholeBoard; // whether the board was replaced in the batch
+    char lastNoOp; // a direction key known to change nothing, or NO_KEY
+    volatile long coalesced; // the number of keys skipped as no-ops
+    AtomicLong dropped; // the number of keys dropped by a full queue
+
+    /**
+     * create an engine, not started yet.
+     *
+     * @param deliverer runs deliveries on the GUI thread, like
+     *                  Platform::runLater
+     * @param receiver  shows a change set, called on the GUI thread
+     */
+    public MoveEngine(Executor deliverer, Consumer<ChangeSet> receiver) {
+        this.keys = new ArrayBlockingQueue<Character>(QUEUE_CAPACITY);
+        this.deliverer = deliverer;
+        this.receiver = receiver;
+        this.published = new ConcurrentLinkedQueue<ChangeSet>();
+        this.scheduled = new AtomicBoolean();
+        this.dropped = new AtomicLong();
+        this.cells = new int[INITIAL_CAPACITY];
+        this.tiles = new byte[INITIAL_CAPACITY];
+        this.thread = new Thread(this::run, "streamline-engine");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * start the engine thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * stop the engine thread once the keys already waiting are applied and
+     * published, and wait for it, so a save asked for with o right before
+     * quitting is not lost. Keys offered from now on are dropped. Called
+     * from the thread that offers the keys.
+     */
+    void stop() {
+        stopping = true;
+        if (!thread.isAlive()) {
+            return;
+        }
+        try {
+            keys.put(STOP_KEY);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * hand the engine the game to apply keys to. The game must not be
+     * touched by any other thread from now on.
+     *
+     * @param next the game
+     */
+    void setGame(Streamline next) {
+        next.currentState.listener = this;
+        this.game = next;
+    }
+
+    /**
+     * offer a key to the engine, from any thread.
+     *
+     * @param key the command, see play()
+     * @return false if the queue was full or the engine is stopping and the
+     * key was dropped
+     */
+    boolean submit(char key) {
+        if (stopping || !keys.offer(key)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * collect a tile written by a key, called on the engine thread.
+     *
+     * @param row  the row of the tile
+     * @param col  the column of the tile
+     * @param tile the char now on the tile
+     */
+    public void tileChanged(int row, int col, char tile) {
+        if (count == cells.length) {
+            cells = Arrays.copyOf(cells, count * 2);
+            tiles = Arrays.copyOf(tiles, count * 2);
+        }
+        cells[count] = row * applying.currentState.width + col;
+        tiles[count] = (byte) tile;
+        count = count + 1;
+    }
+
+    /**
+     * note that the whole board was replaced, called on the engine thread.
+     */
+    public void boardChanged() {
+        wholeBoard = true;
+        count = 0;
+    }
+
+    /**
+     * the engine thread: take keys, apply them in batches and publish
+     * what every batch changed. A key that throws is reported and the
+     * whole board is published, since its tiles may be only part of what
+     * it changed. If the thread ends anyway, it stops taking keys, so
+     * stop() and submit() never wait on it.
+     */
+    private void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Character key;
+                try {
+                    key = keys.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                Streamline current = this.game;
+                if (current != applying) {
+                    // what was a no-op on the last level says nothing here
+                    applying = current;
+                    lastNoOp = NO_KEY;
+                }
+                int batch = 0;
+                while (key != null) {
+                    if (key == STOP_KEY) {
+                        publish(current);
+                        return;
+                    }
+                    try {
+                        apply(current, key);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        wholeBoard = true;
+                        count = 0;
+                        lastNoOp = NO_KEY;
+                    }
+                    batch = batch + 1;
+                    key = batch < MAX_BATCH ? keys.poll() : null;
+                }
+                publish(current);
+            }
+        } finally {
+            // keys offered to an engine that is gone would only fill up
+            // the queue, and stop() could wait for room forever
+            stopping = true;
+            keys.clear();
+        }
+    }
+
+    /**
+     * apply one key to the game, on the engine thread.
+     *
+     * @param current the game
+     * @param key     the command
+     */
+    private void apply(Streamline current, char key) {
+        if (current == null || current.currentState.levelPassed) {
+            return;
+        }
+        if (key == lastNoOp) {
+            coalesced = coalesced + 1;
+            return;
+        }
+        int before = count;
+        switch (key) {
+            case 'w':
+                current.recordAndMove(Direction.UP);
+                break;
+            case 'a':
+                current.recordAndMove(Direction.LEFT);
+                break;
+            case 's':
+                current.recordAndMove(Direction.DOWN);
+                break;
+            case 'd':
+                current.recordAndMove(Direction.RIGHT);
+                break;
+            case 'u':
+                current.undo();
+                break;
+            case 'r':
+                current.redo();
+                break;
+            case 'o':
+                if (saveWriter != null) {
+                    saveWriter.save(current.currentState,
+                            Streamline.OUTFILE_NAME);
+                } else {
+                    current.saveToFile();
+                }
+                break;
+            default:
+                return;
+        }
+        boolean changed = count != before || wholeBoard;
+        if (changed) {
+            lastNoOp = NO_KEY;
+        } else if (key == 'w' || key == 'a' || key == 's' || key == 'd') {
+            lastNoOp = key;
+        }
+    }
+
+    /**
+     * publish what the last batch changed and make sure a delivery is on
+     * its way, on the engine thread.
+     *
+     * @param current the game the batch was applied to
+     */
+    private void publish(Streamline current) {
+        if (current == null || (count == 0 && !wholeBoard)) {
+            return;
+        }
+        GameState state = current.currentState;
+        GameState board = wholeBoard ? new GameState(state) : null;
+        published.add(new ChangeSet(current, Arrays.copyOf(cells, count),
+                Arrays.copyOf(tiles, count), board, state));
+        count = 0;
+        wholeBoard = false;
+        if (scheduled.compareAndSet(false, true)) {
+            deliverer.execute(this::deliver);
+        }
+    }
+
+    /**
+     * hand every published change set to the receiver, on the GUI thread.
+     */
+    private void deliver() {
+        // sets published from now on need a delivery of their own
+        scheduled.set(false);
+        for (ChangeSet changes = published.poll(); changes != null;
+             changes = published.poll()) {
+            receiver.accept(changes);
+        }
+    }
+}
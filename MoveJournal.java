@@ -0,0 +1,236 @@
+/**
+ * File header for MoveJournal.java
+ * Description: Records what every move changed on the board so that moves
+ * can be undone without keeping a copy of the whole board.
+ * name: Yuanhao Zhu
+ */
+
+import java.util.Arrays;
+
+/**
+ * Class header: MoveJournal
+ * A stack of move frames. Each frame holds the player position and the
+ * levelPassed flag from before the move, and the frame owns the cells that
+ * the move overwrote together with their old tiles. Cells are kept as flat
+ * indices into GameState.tiles in two growable arrays shared by all frames,
+ * so a move costs memory proportional to the number of tiles it changed.
+ *
+ * Moves made with a direction are also kept in a tree for redo. Node 0 is
+ * the board the journal started from, and a node has a child for every
+ * direction a move changed the board in, at most four since moves are
+ * deterministic. Every node remembers the child it was last left through,
+ * which is where redo goes. An undo drops the tiles of its frame, and a
+ * redo makes the move again, so the tree costs a few ints per move no
+ * matter the size of the board.
+ */
+public class MoveJournal {
+    // starting capacity of the cell and frame arrays
+    private static final int INITIAL_CAPACITY = 64;
+    // the number of children a node of the redo tree can have
+    private static final int DIRECTIONS = 4;
+    // the directions by ordinal, values() copies its array every call
+    private static final Direction[] BY_ORDINAL = Direction.values();
+
+    int[] cells; // flat indices of the changed tiles of all frames
+    byte[] oldTiles; // the tiles the changed cells held before the move
+    int cellCount; // the number of used entries of cells and oldTiles
+    int[] frameStart; // the first entry in cells of every frame
+    int[] framePlayerRow; // the player row before the move of every frame
+    int[] framePlayerCol; // the player column before the move of every frame
+    boolean[] framePassed; // levelPassed before the move of every frame
+    int frameCount; // the number of frames on the stack
+    boolean recording; // whether a frame is open and collecting cells
+    int[] frameNode; // the tree node the move of every frame started from
+    int[] nodeChild; // the child of every node in each direction, or -1
+    int[] nodeRedo; // the child every node was last left through, or -1
+    byte[] nodeDirection; // the ordinal of the move into every node
+    int nodeCount; // the number of nodes of the tree
+    int node; // the node of the board, -1 after a move without direction
+    Direction pending; // the direction of the open frame, may be null
+
+    /**
+     * create an empty journal.
+     */
+    public MoveJournal() {
+        this.cells = new int[INITIAL_CAPACITY];
+        this.oldTiles = new byte[INITIAL_CAPACITY];
+        this.frameStart = new int[INITIAL_CAPACITY];
+        this.framePlayerRow = new int[INITIAL_CAPACITY];
+        this.framePlayerCol = new int[INITIAL_CAPACITY];
+        this.framePassed = new boolean[INITIAL_CAPACITY];
+        this.frameNode = new int[INITIAL_CAPACITY];
+        this.nodeChild = new int[INITIAL_CAPACITY * DIRECTIONS];
+        this.nodeRedo = new int[INITIAL_CAPACITY];
+        this.nodeDirection = new byte[INITIAL_CAPACITY];
+        clearTree();
+    }
+
+    /**
+     * getter for the number of moves that can be undone.
+     *
+     * @return the number of frames on the stack
+     */
+    int size() {
+        return this.frameCount;
+    }
+
+    /**
+     * drop every frame.
+     */
+    void clear() {
+        this.cellCount = 0;
+        this.frameCount = 0;
+        this.recording = false;
+        clearTree();
+    }
+
+    /**
+     * drop every node of the redo tree but the starting board.
+     */
+    private void clearTree() {
+        this.nodeCount = 1;
+        this.node = 0;
+        this.nodeRedo[0] = -1;
+        Arrays.fill(this.nodeChild, 0, DIRECTIONS, -1);
+    }
+
+    /**
+     * open a new frame before a move that is not kept for redo.
+     *
+     * @param state the state that is about to move
+     */
+    void beginMove(GameState state) {
+        beginMove(state, null);
+    }
+
+    /**
+     * open a new frame before a move, remembering the player position and
+     * the levelPassed flag of the state.
+     *
+     * @param state     the state that is about to move
+     * @param direction the direction of the move, to redo it, or null
+     */
+    void beginMove(GameState state, Direction direction) {
+        if (this.frameCount == this.frameStart.length) {
+            int capacity = this.frameCount * 2;
+            this.frameStart = Arrays.copyOf(this.frameStart, capacity);
+            this.framePlayerRow = Arrays.copyOf(this.framePlayerRow, capacity);
+            this.framePlayerCol = Arrays.copyOf(this.framePlayerCol, capacity);
+            this.framePassed = Arrays.copyOf(this.framePassed, capacity);
+            this.frameNode = Arrays.copyOf(this.frameNode, capacity);
+        }
+        this.frameStart[frameCount] = this.cellCount;
+        this.framePlayerRow[frameCount] = state.playerRow;
+        this.framePlayerCol[frameCount] = state.playerCol;
+        this.framePassed[frameCount] = state.levelPassed;
+        this.frameNode[frameCount] = this.node;
+        this.frameCount = this.frameCount + 1;
+        this.recording = true;
+        this.pending = direction;
+    }
+
+    /**
+     * remember the old tile of a cell the open frame is about to overwrite.
+     *
+     * @param cell    the flat index of the cell
+     * @param oldTile the tile the cell holds before the write
+     */
+    void record(int cell, byte oldTile) {
+        if (this.cellCount == this.cells.length) {
+            int capacity = this.cellCount * 2;
+            this.cells = Arrays.copyOf(this.cells, capacity);
+            this.oldTiles = Arrays.copyOf(this.oldTiles, capacity);
+        }
+        this.cells[cellCount] = cell;
+        this.oldTiles[cellCount] = oldTile;
+        this.cellCount = this.cellCount + 1;
+    }
+
+    /**
+     * close the open frame after the move. A move that did not change any
+     * tile can not be undone, so its frame is dropped.
+     *
+     * @return true if the move changed the board and was kept
+     */
+    boolean endMove() {
+        this.recording = false;
+        int last = this.frameCount - 1;
+        if (this.frameStart[last] == this.cellCount) {
+            this.frameCount = last;
+            return false;
+        }
+        if (this.pending == null || this.node < 0) {
+            // the board is off the tree until this move is undone
+            this.node = -1;
+        } else {
+            int slot = this.node * DIRECTIONS + this.pending.ordinal();
+            if (this.nodeChild[slot] < 0) {
+                this.nodeChild[slot] = addNode(this.pending);
+            }
+            this.nodeRedo[this.node] = this.nodeChild[slot];
+            this.node = this.nodeChild[slot];
+        }
+        return true;
+    }
+
+    /**
+     * the direction of the move redo would make again.
+     *
+     * @return the direction of the move last undone from this board, null
+     * if there is none
+     */
+    Direction redoDirection() {
+        if (this.node < 0 || this.nodeRedo[this.node] < 0) {
+            return null;
+        }
+        return BY_ORDINAL[this.nodeDirection[this.nodeRedo[node]]];
+    }
+
+    /**
+     * add a node without children to the redo tree.
+     *
+     * @param direction the direction of the move into it
+     * @return the new node
+     */
+    private int addNode(Direction direction) {
+        if (this.nodeCount == this.nodeRedo.length) {
+            int capacity = this.nodeCount * 2;
+            this.nodeChild = Arrays.copyOf(this.nodeChild,
+                    capacity * DIRECTIONS);
+            this.nodeRedo = Arrays.copyOf(this.nodeRedo, capacity);
+            this.nodeDirection = Arrays.copyOf(this.nodeDirection, capacity);
+        }
+        int added = this.nodeCount;
+        Arrays.fill(this.nodeChild, added * DIRECTIONS,
+                (added + 1) * DIRECTIONS, -1);
+        this.nodeRedo[added] = -1;
+        this.nodeDirection[added] = (byte) direction.ordinal();
+        this.nodeCount = added + 1;
+        return added;
+    }
+
+    /**
+     * undo the last move by writing the old tiles back in reverse order,
+     * then putting back the player position and the levelPassed flag.
+     *
+     * @param state the state the last move was made on
+     * @return false if there was nothing to undo
+     */
+    boolean undo(GameState state) {
+        if (this.frameCount == 0) {
+            return false;
+        }
+        int last = this.frameCount - 1;
+        int start = this.frameStart[last];
+        for (int i = this.cellCount - 1; i >= start; i--) {
+            state.restoreTile(this.cells[i], this.oldTiles[i]);
+        }
+        state.playerRow = this.framePlayerRow[last];
+        state.playerCol = this.framePlayerCol[last];
+        state.levelPassed = this.framePassed[last];
+        this.node = this.frameNode[last];
+        this.cellCount = start;
+        this.frameCount = last;
+        return true;
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * File header for MoveWal.java
+ * Description: Autosaves a game as a checkpoint board plus a log of the
+ * moves made since, and brings the game back from them after a crash.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Class header: MoveWal
+ * The autosave of the level in file dir/x is kept in the directory
+ * dir/.autosave, so the tools that list a directory of levels only ever
+ * see levels. It is the checkpoint x.ckpt.slb, a board in the binary
+ * format of LevelFormat, and the write-ahead log x.wal, which is CAPACITY
+ * bytes mapped into memory once and written in place:
+ *   int    magic, the bytes "SLWL"
+ *   short  version
+ *   long   the Zobrist hash of the checkpoint the moves start from
+ * followed by one byte per effective move or undo, in the format of the
+ * records of SessionLog, up to the first zero byte. Moves and undos that
+ * change nothing are not logged, so a move costs one byte written to
+ * memory whatever the size of the board, and the system writes the page
+ * out. When the log is full it is compacted: the board is written as the
+ * new checkpoint, through LevelFormat.saveDurable,
+ * then the records are cut and the hash of the new checkpoint is written.
+ * A crash between the two steps leaves a log whose hash is not the one of
+ * the checkpoint, and such a stale log is ignored, which is right because
+ * the checkpoint already holds its moves. Moves made before a compaction
+ * can no longer be undone. Recovery loads the checkpoint and replays the
+ * records through the game, which also rebuilds its undo and redo history.
+ * The log outlives a crash of the program; a crash of the whole system can
+ * lose the moves the system had not written out yet.
+ */
+public class MoveWal {
+    // the first four bytes of a write-ahead log, "SLWL"
+    static final int MAGIC = 0x534c574c;
+    // the current version of the log format
+    static final short VERSION = 1;
+    // the bytes of the magic, the version and the checkpoint hash
+    static final int HEADER_SIZE = 14;
+    // where the checkpoint hash is in the header
+    static final int HASH_OFFSET = 6;
+    // the size of the log file, header included
+    static final int CAPACITY = 1 << 16;
+    // the directory next to the level files their autosaves go in
+    static final String DIRECTORY = ".autosave";
+    // appended to the level file name to name the log
+    static final String WAL_EXTENSION = ".wal";
+    // appended to the level file name to name the checkpoint
+    static final String CHECKPOINT_EXTENSION =
+            ".ckpt" + LevelFormat.BINARY_EXTENSION;
+
+    String walName; // the log file
+    String checkpointName; // the checkpoint file
+    MappedByteBuffer log; // the whole log, positioned after the last record
+    int recovered; // the number of records replayed when opened
+
+    /**
+     * start autosaving a game, recovering it first from an autosave that
+     * is already there.
+     *
+     * @param game     the game, its board is replaced by a recovered one
+     * @param filename the level file the game was loaded from
+     * @throws IOException if the autosave can not be read or written
+     */
+    public MoveWal(Streamline game, String filename) throws IOException {
+        File directory = directoryOf(filename);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create " + directory);
+        }
+        this.walName = fileOf(filename, WAL_EXTENSION).toString();
+        this.checkpointName =
+                fileOf(filename, CHECKPOINT_EXTENSION).toString();
+        boolean existed = new File(walName).isFile();
+        try (FileChannel channel = FileChannel.open(Paths.get(walName),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            this.log = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    CAPACITY);
+        }
+        if (!existed || !recover(game)) {
+            compact(game);
+        }
+    }
+
+    /**
+     * check if a level file has an autosave.
+     *
+     * @param filename the level file
+     * @return true if there is a log for it
+     */
+    static boolean exists(String filename) {
+        return fileOf(filename, WAL_EXTENSION).isFile();
+    }
+
+    /**
+     * the directory the autosaves of the levels next to a level go in.
+     *
+     * @param filename the level file
+     * @return DIRECTORY in the directory of the level
+     */
+    static File directoryOf(String filename) {
+        return new File(new File(filename).getAbsoluteFile().getParentFile(),
+                DIRECTORY);
+    }
+
+    /**
+     * a file of the autosave of a level.
+     *
+     * @param filename  the level file
+     * @param extension WAL_EXTENSION or CHECKPOINT_EXTENSION
+     * @return the file in directoryOf() the level
+     */
+    static File fileOf(String filename, String extension) {
+        return new File(directoryOf(filename),
+                new File(filename).getName() + extension);
+    }
+
+    /**
+     * log a move or an undo, compacting the log first if it is full.
+     *
+     * @param record the record, see SessionLog
+     * @param game   the game, checkpointed if the log is compacted
+     * @throws IOException if the checkpoint can not be written
+     */
+    void append(int record, Streamline game) throws IOException {
+        if (!log.hasRemaining()) {
+            // the board already has this input, checkpoint it instead
+            compact(game);
+            return;
+        }
+        log.put((byte) record);
+    }
+
+    /**
+     * write the board as the new checkpoint and start an empty log from
+     * it. The moves made before it can no longer be undone.
+     *
+     * @param game the game
+     * @throws IOException if the checkpoint can not be written
+     */
+    void compact(Streamline game) throws IOException {
+        GameState state = game.currentState;
+        // the log is cut below, the checkpoint must be on the disk first
+        LevelFormat.saveDurable(state, checkpointName);
+        // cut the records before the hash says they belong to the board
+        for (int i = HEADER_SIZE; i < CAPACITY; i++) {
+            log.put(i, (byte) 0);
+        }
+        log.force();
+        log.putInt(0, MAGIC);
+        log.putShort(Integer.BYTES, VERSION);
+        log.putLong(HASH_OFFSET, state.zobristHash());
+        log.force();
+        log.position(HEADER_SIZE);
+        game.previousMoves.clear();
+    }
+
+    /**
+     * remove the autosave, as when the level is passed.
+     *
+     * @throws IOException if a file can not be removed
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(Paths.get(walName));
+        Files.deleteIfExists(Paths.get(checkpointName));
+        // only goes once no other level of the directory has an autosave
+        new File(walName).getParentFile().delete();
+    }
+
+    /**
+     * load the checkpoint and replay the records of the log.
+     *
+     * @param game the game, its board is replaced by the checkpoint
+     * @return false if the log is stale or broken and was not replayed
+     * @throws IOException if the checkpoint can not be read
+     */
+    private boolean recover(Streamline game) throws IOException {
+        if (!new File(checkpointName).isFile()) {
+            return false;
+        }
+        // the checkpoint is always whole, whatever became of the log
+        GameState checkpoint = LevelFormat.load(checkpointName);
+        game.currentState = checkpoint;
+        game.previousMoves.clear();
+        checkpoint.journal = game.previousMoves;
+        if (log.getInt(0) != MAGIC || log.getShort(Integer.BYTES) != VERSION
+                || checkpoint.zobristHash() != log.getLong(HASH_OFFSET)) {
+            return false;
+        }
+        Direction[] directions = Direction.values();
+        log.position(HEADER_SIZE);
+        while (log.hasRemaining()) {
+            int record = log.get(log.position()) & 0xff;
+            if (record == 0) {
+                break;
+            }
+            if ((record & SessionLog.UNDO) != 0) {
+                game.undo();
+            } else {
+                game.recordAndMove(
+                        directions[record & SessionLog.DIRECTION_MASK]);
+            }
+            log.position(log.position() + 1);
+            recovered = recovered + 1;
+        }
+        return true;
+    }
+
+    /**
+     * play every level with an autosave and a random script, drop the
+     * game without closing anything as a crash would, and load the level
+     * again from its autosave.
+     *
+     * @param levels the levels
+     * @return true if every game came back to the board and the number of
+     * moves to undo it was left with, or left no autosave if it passed
+     * @throws IOException if a level can not be read or written
+     */
+    static boolean checkRecovery(List<BatchRunner.LevelRef> levels)
+            throws IOException {
+        SplittableRandom random = new SplittableRandom(
+                BatchRunner.CHECK_SEED);
+        Path dir = Files.createTempDirectory("autosave");
+        String file = dir.resolve("level" + LevelFormat.BINARY_EXTENSION)
+                .toString();
+        boolean same = true;
+        for (BatchRunner.LevelRef ref : levels) {
+            LevelFormat.save(ref.load(), file);
+            Streamline game = new Streamline(file);
+            game.autosave = new MoveWal(game, file);
+            String script = BatchRunner.randomScript(random,
+                    BatchRunner.CHECK_INPUTS);
+            // the autosave goes once the level is passed, like the game
+            for (int i = 0; i < script.length()
+                    && !game.currentState.levelPassed; i++) {
+                BatchRunner.apply(game, script.charAt(i));
+            }
+            if (game.currentState.levelPassed) {
+                same = same && !exists(file);
+                continue;
+            }
+            Streamline again = new Streamline(file);
+            again.autosave = new MoveWal(again, file);
+            same = same && again.currentState.equals(game.currentState)
+                    && again.previousMoves.size()
+                    == game.previousMoves.size();
+            again.autosave.delete();
+        }
+        Files.delete(Paths.get(file));
+        Files.delete(dir);
+        return same;
+    }
+
+    /**
+     * check the crash recovery of the autosave on levels.
+     *
+     * @param args the levels
+     * @throws IOException if a level can not be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: java MoveWal <level file, directory "
+                    + "or pack>\n  plays the levels at random with an "
+                    + "autosave and checks that they come back\n  from it "
+                    + "as they were left");
+            return;
+        }
+        List<BatchRunner.LevelRef> levels = BatchRunner.levelsOf(args[0]);
+        System.out.println("autosave recovery of " + levels.size()
+                + " levels: " + (checkRecovery(levels) ? "ok" : "FAILED"));
+    }
+}
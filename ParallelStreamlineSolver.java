@@ -0,0 +1,638 @@
+/**
+ * File header for ParallelStreamlineSolver.java
+ * Description: Finds the shortest solution of a level like StreamlineSolver
+ * does, but spreads the search over all cores with a ForkJoinPool.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Class header: ParallelStreamlineSolver
+ * Level synchronous breadth first search. Every depth of the search runs in
+ * four phases, each one a ForkJoin task split over the pool:
+ * 1. expand: the frontier is cut into chunks, and every chunk expands its
+ *    states with the SolverEngine of its worker thread into its own buffer.
+ * 2. dedupe: the visited set is split into stripes by hash, and every stripe
+ *    goes through the new states that fall into it, in frontier order, and
+ *    keeps the first copy of every state that was not visited before.
+ * 3. store: every chunk copies the states it kept into the state arrays, at
+ *    positions given by a prefix sum over the chunks.
+ * 4. index: every stripe enters its kept states into its table.
+ * No phase writes anything another task of the same phase reads, so the
+ * tables need no locks. Because the states are kept and numbered in
+ * frontier order, the search finds exactly the solution StreamlineSolver
+ * finds. The prefix sum also walks the kept states in that order, so the
+ * search stops at the same state as StreamlineSolver, on the goal or at
+ * maxStates, and statesFound() and limitReached() agree with it.
+ */
+public class ParallelStreamlineSolver {
+    // number of frontier states expanded by one chunk
+    static final int CHUNK_SIZE = 64;
+    // number of stripes of the visited set, a power of two
+    static final int STRIPES = 64;
+    // shift to take the stripe from the top bits of a hash
+    private static final int STRIPE_SHIFT = 58;
+    // starting capacity of the state arrays and of one stripe table
+    private static final int INITIAL_CAPACITY = 1024;
+    // the number of moves tried from every state
+    private static final int DIRECTIONS_COUNT =
+            StreamlineSolver.DIRECTIONS.length;
+
+    GameState start; // the start state of the level
+    ForkJoinPool pool; // runs the phases
+    ThreadLocal<SolverEngine> engines; // one engine per worker thread
+    int words; // the number of longs of one state
+    int maxStates; // the search gives up after this many states
+
+    long[] bits; // the changed cells of every state, one after the other
+    int[] player; // the player cell of every state
+    int[] parent; // the state every state was reached from, -1 for start
+    byte[] move; // index in DIRECTIONS of the move reaching every state
+    long[] hash; // the Zobrist hash of every state
+    int stateCount; // the number of states found
+    int[][] tables; // open addressing table of state numbers plus one,
+    // one per stripe
+    int[] tableCount; // the number of states in every stripe table
+    Chunk[] chunks; // the chunks of the frontier being expanded
+    boolean limitReached; // whether the last search ran out of states
+
+    /**
+     * The new states found by one chunk of the frontier.
+     */
+    static class Chunk {
+        int first; // the first frontier state of the chunk
+        int last; // one past the last frontier state of the chunk
+        int count; // the number of new states
+        long[] bits; // the changed cells of the new states
+        int[] player; // the player cell of the new states
+        int[] parent; // the frontier state every new state came from
+        byte[] move; // index in DIRECTIONS of the move of every new state
+        long[] hash; // the Zobrist hash of the new states
+        boolean[] kept; // whether the dedupe phase kept the new state
+        int[] byStripe; // the new states sorted by stripe, stable
+        int[] stripeStart; // the first entry of every stripe in byStripe
+        int passed; // the first new state on the goal, -1 if none
+        int firstId; // the state number of the first kept new state
+
+        /**
+         * create a chunk for the frontier states first to last.
+         *
+         * @param first the first frontier state of the chunk
+         * @param last  one past the last frontier state of the chunk
+         * @param words the number of longs of one state
+         */
+        Chunk(int first, int last, int words) {
+            int capacity = (last - first) * DIRECTIONS_COUNT;
+            this.first = first;
+            this.last = last;
+            this.bits = new long[capacity * words];
+            this.player = new int[capacity];
+            this.parent = new int[capacity];
+            this.move = new byte[capacity];
+            this.hash = new long[capacity];
+            this.kept = new boolean[capacity];
+            this.byStripe = new int[capacity];
+            this.stripeStart = new int[STRIPES + 1];
+            this.passed = -1;
+        }
+    }
+
+    /**
+     * create a solver for the level starting at the given state, running on
+     * the common pool with the default limit on the number of states.
+     *
+     * @param start the start state of the level
+     */
+    public ParallelStreamlineSolver(GameState start) {
+        this(start, ForkJoinPool.commonPool(),
+                StreamlineSolver.DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * create a solver for the level starting at the given state.
+     *
+     * @param start     the start state of the level
+     * @param pool      the pool running the search
+     * @param maxStates the search gives up after finding this many states
+     */
+    public ParallelStreamlineSolver(GameState start, ForkJoinPool pool,
+                                    int maxStates) {
+        this.start = new GameState(start);
+        this.pool = pool;
+        this.maxStates = maxStates;
+        this.engines = ThreadLocal.withInitial(
+                () -> new SolverEngine(this.start));
+        this.words = engines.get().words();
+    }
+
+    /**
+     * search for the shortest solution.
+     *
+     * @return the moves of the shortest solution, empty if the start state
+     * has already passed, null if the level can not be passed or the state
+     * limit was reached first (see limitReached())
+     */
+    public List<Direction> solve() {
+        reset();
+        SolverEngine e = engines.get();
+        if (e.isPassed(e.startCell)) {
+            return new ArrayList<Direction>();
+        }
+        ensureCapacity(1);
+        this.player[0] = e.startCell;
+        this.parent[0] = -1;
+        this.hash[0] = e.startHash();
+        this.stateCount = 1;
+        insert(stripe(this.hash[0]), 0);
+        if (this.stateCount == this.maxStates) {
+            this.limitReached = true;
+            return null;
+        }
+        int levelStart = 0;
+        while (levelStart < this.stateCount) {
+            int levelEnd = this.stateCount;
+            // 1. expand
+            int chunkCount = (levelEnd - levelStart + CHUNK_SIZE - 1)
+                    / CHUNK_SIZE;
+            this.chunks = new Chunk[chunkCount];
+            for (int c = 0; c < chunkCount; c++) {
+                int first = levelStart + c * CHUNK_SIZE;
+                this.chunks[c] = new Chunk(first,
+                        Math.min(first + CHUNK_SIZE, levelEnd), this.words);
+            }
+            run(chunkCount, c -> expand(this.chunks[c]));
+            // 2. dedupe
+            run(STRIPES, this::dedupe);
+            // 3. store, after counting the kept states in the order
+            // StreamlineSolver adds them, to stop where it stops: at the
+            // first state on the goal, or once maxStates states are found
+            int added = 0;
+            for (Chunk chunk : this.chunks) {
+                chunk.firstId = this.stateCount + added;
+                for (int i = 0; i < chunk.count; i++) {
+                    if (!chunk.kept[i]) {
+                        continue;
+                    }
+                    added = added + 1;
+                    if (i == chunk.passed) {
+                        // counted like the serial search, not stored
+                        this.stateCount = this.stateCount + added;
+                        List<Direction> moves = path(chunk.parent[i]);
+                        moves.add(StreamlineSolver.DIRECTIONS[chunk.move[i]]);
+                        return moves;
+                    }
+                    if (this.stateCount + added == this.maxStates) {
+                        this.stateCount = this.maxStates;
+                        this.limitReached = true;
+                        return null;
+                    }
+                }
+            }
+            ensureCapacity(this.stateCount + added);
+            run(chunkCount, c -> store(this.chunks[c]));
+            this.stateCount = this.stateCount + added;
+            // 4. index
+            run(STRIPES, this::index);
+            this.chunks = null;
+            levelStart = levelEnd;
+        }
+        return null;
+    }
+
+    /**
+     * whether the last search gave up because of the state limit.
+     *
+     * @return true if the last search was cut off
+     */
+    public boolean limitReached() {
+        return this.limitReached;
+    }
+
+    /**
+     * the number of different states the last search found.
+     *
+     * @return the number of states
+     */
+    public int statesFound() {
+        return this.stateCount;
+    }
+
+    /**
+     * phase 1, expand every frontier state of a chunk in every direction.
+     *
+     * @param chunk the chunk to expand
+     */
+    private void expand(Chunk chunk) {
+        SolverEngine e = engines.get();
+        for (int id = chunk.first; id < chunk.last; id++) {
+            e.load(this.bits, id * this.words, this.player[id]);
+            for (int d = 0; d < DIRECTIONS_COUNT; d++) {
+                int i = chunk.count;
+                int next = e.expand(StreamlineSolver.DIRECTIONS[d],
+                        chunk.bits, i * this.words);
+                if (next < 0) {
+                    continue;
+                }
+                chunk.player[i] = next;
+                chunk.parent[i] = id;
+                chunk.move[i] = (byte) d;
+                chunk.hash[i] = e.lastHash;
+                chunk.count = i + 1;
+                if (e.isPassed(next) && chunk.passed < 0) {
+                    chunk.passed = i;
+                }
+            }
+        }
+        e.unload();
+        // counting sort of the new states by stripe, keeping their order
+        for (int i = 0; i < chunk.count; i++) {
+            chunk.stripeStart[stripe(chunk.hash[i]) + 1]++;
+        }
+        for (int s = 0; s < STRIPES; s++) {
+            chunk.stripeStart[s + 1] += chunk.stripeStart[s];
+        }
+        int[] next = Arrays.copyOf(chunk.stripeStart, STRIPES);
+        for (int i = 0; i < chunk.count; i++) {
+            chunk.byStripe[next[stripe(chunk.hash[i])]++] = i;
+        }
+    }
+
+    /**
+     * phase 2, keep the first copy of every new state of a stripe that is
+     * not in the stripe table yet. The new states of the stripe are put in
+     * a table of their own for the duration of the phase.
+     *
+     * @param s the stripe
+     */
+    private void dedupe(int s) {
+        int count = 0;
+        for (Chunk chunk : this.chunks) {
+            count = count + chunk.stripeStart[s + 1] - chunk.stripeStart[s];
+        }
+        if (count == 0) {
+            return;
+        }
+        // slots hold chunk number and new state number, plus one
+        int size = Integer.highestOneBit(count * 2) * 2;
+        long[] level = new long[size];
+        int mask = size - 1;
+        for (int c = 0; c < this.chunks.length; c++) {
+            Chunk chunk = this.chunks[c];
+            for (int k = chunk.stripeStart[s]; k < chunk.stripeStart[s + 1];
+                 k++) {
+                int i = chunk.byStripe[k];
+                if (find(s, chunk, i) >= 0) {
+                    continue;
+                }
+                long key = chunk.hash[i];
+                int slot = (int) (key ^ (key >>> 32)) & mask;
+                boolean seen = false;
+                while (level[slot] != 0) {
+                    Chunk other = this.chunks[(int) (level[slot] >>> 32)];
+                    int j = (int) level[slot] - 1;
+                    if (sameState(other, j, chunk, i)) {
+                        seen = true;
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (!seen) {
+                    level[slot] = ((long) c << 32) | (i + 1);
+                    chunk.kept[i] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * phase 3, copy the kept new states of a chunk into the state arrays.
+     *
+     * @param chunk the chunk to copy
+     */
+    private void store(Chunk chunk) {
+        int id = chunk.firstId;
+        for (int i = 0; i < chunk.count; i++) {
+            if (!chunk.kept[i]) {
+                continue;
+            }
+            System.arraycopy(chunk.bits, i * this.words, this.bits,
+                    id * this.words, this.words);
+            this.player[id] = chunk.player[i];
+            this.parent[id] = chunk.parent[i];
+            this.move[id] = chunk.move[i];
+            this.hash[id] = chunk.hash[i];
+            id = id + 1;
+        }
+    }
+
+    /**
+     * phase 4, enter the states stored by this depth into a stripe table.
+     *
+     * @param s the stripe
+     */
+    private void index(int s) {
+        for (Chunk chunk : this.chunks) {
+            int id = chunk.firstId;
+            for (int i = 0; i < chunk.count; i++) {
+                if (!chunk.kept[i]) {
+                    continue;
+                }
+                if (stripe(chunk.hash[i]) == s) {
+                    insert(s, id);
+                }
+                id = id + 1;
+            }
+        }
+    }
+
+    /**
+     * run a phase over the pool, calling task for 0 to count - 1.
+     *
+     * @param count the number of parts of the phase
+     * @param task  the work of one part
+     */
+    private void run(int count, IntConsumer task) {
+        this.pool.invoke(new RangeTask(0, count, task));
+    }
+
+    /**
+     * Splits a range of parts in halves until single parts are left.
+     */
+    static class RangeTask extends RecursiveAction {
+        // version of the serialized form, the tasks are never serialized
+        private static final long serialVersionUID = 1L;
+
+        int from; // the first part
+        int to; // one past the last part
+        IntConsumer task; // the work of one part
+
+        /**
+         * create a task for the parts from to to - 1.
+         *
+         * @param from the first part
+         * @param to   one past the last part
+         * @param task the work of one part
+         */
+        RangeTask(int from, int to, IntConsumer task) {
+            this.from = from;
+            this.to = to;
+            this.task = task;
+        }
+
+        /**
+         * run a single part, or split the range in two.
+         */
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                task.accept(from);
+            } else if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeTask(from, middle, task),
+                        new RangeTask(middle, to, task));
+            }
+        }
+    }
+
+    /**
+     * clear the states of a previous search.
+     */
+    private void reset() {
+        this.bits = new long[INITIAL_CAPACITY * this.words];
+        this.player = new int[INITIAL_CAPACITY];
+        this.parent = new int[INITIAL_CAPACITY];
+        this.move = new byte[INITIAL_CAPACITY];
+        this.hash = new long[INITIAL_CAPACITY];
+        this.tables = new int[STRIPES][INITIAL_CAPACITY];
+        this.tableCount = new int[STRIPES];
+        this.stateCount = 0;
+        this.limitReached = false;
+    }
+
+    /**
+     * grow the state arrays so they hold at least count states.
+     *
+     * @param count the number of states needed
+     */
+    private void ensureCapacity(int count) {
+        if (count <= this.player.length) {
+            return;
+        }
+        int capacity = Math.max(this.player.length * 2, count);
+        this.bits = Arrays.copyOf(this.bits, capacity * this.words);
+        this.player = Arrays.copyOf(this.player, capacity);
+        this.parent = Arrays.copyOf(this.parent, capacity);
+        this.move = Arrays.copyOf(this.move, capacity);
+        this.hash = Arrays.copyOf(this.hash, capacity);
+    }
+
+    /**
+     * the stripe of the visited set a state belongs to.
+     *
+     * @param key the Zobrist hash of the state
+     * @return the stripe, from 0 to STRIPES - 1
+     */
+    private static int stripe(long key) {
+        return (int) (key >>> STRIPE_SHIFT);
+    }
+
+    /**
+     * look a new state up in the table of its stripe.
+     *
+     * @param s     the stripe of the state
+     * @param chunk the chunk holding the new state
+     * @param i     the number of the new state in the chunk
+     * @return the number of the equal state found before, -1 if it is new
+     */
+    private int find(int s, Chunk chunk, int i) {
+        int[] table = this.tables[s];
+        int mask = table.length - 1;
+        long key = chunk.hash[i];
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if (this.hash[id] == key && this.player[id] == chunk.player[i]
+                    && Arrays.equals(this.bits, id * this.words,
+                    (id + 1) * this.words, chunk.bits, i * this.words,
+                    (i + 1) * this.words)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * whether two new states are the same state.
+     *
+     * @param a the chunk holding the first state
+     * @param i the number of the first state in a
+     * @param b the chunk holding the second state
+     * @param j the number of the second state in b
+     * @return true if the states are equal
+     */
+    private boolean sameState(Chunk a, int i, Chunk b, int j) {
+        return a.hash[i] == b.hash[j] && a.player[i] == b.player[j]
+                && Arrays.equals(a.bits, i * this.words, (i + 1) * this.words,
+                b.bits, j * this.words, (j + 1) * this.words);
+    }
+
+    /**
+     * put a state in its stripe table, growing the table when it gets more
+     * than half full.
+     *
+     * @param s  the stripe of the state
+     * @param id the number of the state
+     */
+    private void insert(int s, int id) {
+        this.tableCount[s] = this.tableCount[s] + 1;
+        if (this.tableCount[s] * 2 > this.tables[s].length) {
+            int[] old = this.tables[s];
+            this.tables[s] = new int[old.length * 2];
+            for (int slot : old) {
+                if (slot != 0) {
+                    place(this.tables[s], slot - 1);
+                }
+            }
+        }
+        place(this.tables[s], id);
+    }
+
+    /**
+     * put a state in the first free slot of its chain in a table.
+     *
+     * @param table the table
+     * @param id    the number of the state
+     */
+    private void place(int[] table, int id) {
+        int mask = table.length - 1;
+        long key = this.hash[id];
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = id + 1;
+    }
+
+    /**
+     * follow the parents from a state back to the start.
+     *
+     * @param id the number of the last state of the path
+     * @return the moves leading from the start to the state
+     */
+    private List<Direction> path(int id) {
+        List<Direction> moves = new ArrayList<Direction>();
+        for (int s = id; this.parent[s] >= 0; s = this.parent[s]) {
+            moves.add(StreamlineSolver.DIRECTIONS[this.move[s]]);
+        }
+        Collections.reverse(moves);
+        return moves;
+    }
+
+    /**
+     * solve one level on all cores and print the result.
+     *
+     * @param name  the name the level is printed with
+     * @param state the level
+     */
+    static void report(String name, GameState state) {
+        ParallelStreamlineSolver solver = new ParallelStreamlineSolver(state);
+        long begin = System.nanoTime();
+        List<Direction> solution = solver.solve();
+        long millis = (System.nanoTime() - begin) / 1000000;
+        if (solution != null) {
+            System.out.printf("%s: %d moves %s (%d states, %d ms)\n",
+                    name, solution.size(), solution, solver.statesFound(),
+                    millis);
+        } else if (solver.limitReached()) {
+            System.out.printf("%s: gave up after %d states\n", name,
+                    solver.statesFound());
+        } else {
+            System.out.printf("%s: unsolvable (%d states, %d ms)\n", name,
+                    solver.statesFound(), millis);
+        }
+    }
+
+    /**
+     * solve every level with both searches, with the default state limit
+     * and with limits that cut the search off around where it ends.
+     *
+     * @param levels the levels
+     * @return true if both searches give the same moves, states found and
+     * limitReached() every time
+     * @throws IOException if a level can not be read
+     */
+    static boolean checkSerial(List<BatchRunner.LevelRef> levels)
+            throws IOException {
+        boolean same = true;
+        for (BatchRunner.LevelRef ref : levels) {
+            GameState level = ref.load();
+            StreamlineSolver full = new StreamlineSolver(level);
+            full.solve();
+            int found = full.statesFound();
+            int[] limits = {StreamlineSolver.DEFAULT_MAX_STATES, found,
+                found - 1, found / 2, 1};
+            for (int limit : limits) {
+                if (limit < 1) {
+                    continue;
+                }
+                StreamlineSolver serial = new StreamlineSolver(level, limit);
+                ParallelStreamlineSolver parallel =
+                        new ParallelStreamlineSolver(level,
+                                ForkJoinPool.commonPool(), limit);
+                same = same && Objects.equals(serial.solve(),
+                        parallel.solve())
+                        && serial.statesFound() == parallel.statesFound()
+                        && serial.limitReached() == parallel.limitReached();
+            }
+        }
+        return same;
+    }
+
+    /**
+     * solve every level file or level pack named on the command line on
+     * all cores and print the result, or check the search against
+     * StreamlineSolver with -check.
+     *
+     * @param args level files or level packs, or -check and the levels
+     * @throws IOException if a level pack can not be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("-check")) {
+            List<BatchRunner.LevelRef> levels =
+                    BatchRunner.levelsOf(args[1]);
+            System.out.println("parallel and serial search of "
+                    + levels.size() + " levels: "
+                    + (checkSerial(levels) ? "ok" : "FAILED"));
+            return;
+        }
+        if (args.length == 0) {
+            System.out.println("Usage: java ParallelStreamlineSolver "
+                    + "<level file or pack>...\n       java "
+                    + "ParallelStreamlineSolver -check <level file, "
+                    + "directory or pack>\n  checks that the levels get "
+                    + "the same solutions as from StreamlineSolver");
+            return;
+        }
+        for (String arg : args) {
+            if (LevelPack.isPack(arg)) {
+                try (LevelPack pack = new LevelPack(arg)) {
+                    for (int i = 0; i < pack.size(); i++) {
+                        report(arg + "#" + i, pack.level(i));
+                    }
+                }
+            } else {
+                report(arg, new Streamline(arg).currentState);
+            }
+        }
+    }
+}
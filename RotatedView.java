@@ -0,0 +1,220 @@
+/**
+ * File header for RotatedView.java
+ * Description: Looks at a GameState as if it was rotated counterclockwise,
+ * without copying or changing the board.
+ * name: Yuanhao Zhu
+ */
+
+/**
+ * Class header: RotatedView
+ * A view of a GameState turned counterclockwise a number of times. Reading
+ * a tile maps the coordinates back to the board and turns a zapper the same
+ * number of times, so making a view or turning it again is O(1). The view
+ * shares the tiles of the state, so moves made on the state show through.
+ * materialize() copies the view into a GameState of its own, which is what
+ * GameState.rotateCounterClockwise() does in place.
+ */
+public class RotatedView {
+    // the number of different rotations
+    static final int TURNS = 4;
+    // the tile a tile turns into after k counterclockwise turns, indexed by
+    // k and then by the byte value of the tile
+    private static final char[][] TURNED_TILE = new char[TURNS][128];
+
+    static {
+        for (int i = 0; i < 128; i++) {
+            TURNED_TILE[0][i] = (char) i;
+        }
+        for (int k = 1; k < TURNS; k++) {
+            for (int i = 0; i < 128; i++) {
+                TURNED_TILE[k][i] = turnOnce(TURNED_TILE[k - 1][i]);
+            }
+        }
+    }
+
+    GameState state; // the state looked at
+    int turns; // the number of counterclockwise turns, from 0 to 3
+
+    /**
+     * create a view of a state turned counterclockwise the given number of
+     * times.
+     *
+     * @param state the state to look at
+     * @param turns the number of counterclockwise turns, any integer
+     */
+    public RotatedView(GameState state, int turns) {
+        this.state = state;
+        this.turns = Math.floorMod(turns, TURNS);
+    }
+
+    /**
+     * a view of the same state turned counterclockwise once more.
+     *
+     * @return the new view
+     */
+    RotatedView rotateCounterClockwise() {
+        return new RotatedView(this.state, this.turns + 1);
+    }
+
+    /**
+     * getter for the number of rows of the view.
+     *
+     * @return the height of the view
+     */
+    int getHeight() {
+        return (turns & 1) == 0 ? state.height : state.width;
+    }
+
+    /**
+     * getter for the number of columns of the view.
+     *
+     * @return the width of the view
+     */
+    int getWidth() {
+        return (turns & 1) == 0 ? state.width : state.height;
+    }
+
+    /**
+     * read a tile of the view, zappers turned along with the board.
+     *
+     * @param row the row in the view
+     * @param col the column in the view
+     * @return the char of the tile
+     */
+    char getTile(int row, int col) {
+        int h = state.height;
+        int w = state.width;
+        int cell;
+        switch (turns) {
+            case 0:
+                cell = row * w + col;
+                break;
+            case 1:
+                cell = col * w + (w - 1 - row);
+                break;
+            case 2:
+                cell = (h - 1 - row) * w + (w - 1 - col);
+                break;
+            default:
+                cell = (h - 1 - col) * w + row;
+                break;
+        }
+        return TURNED_TILE[turns][state.tiles[cell]];
+    }
+
+    /**
+     * getter for the row of the player in the view.
+     *
+     * @return the player row
+     */
+    int getPlayerRow() {
+        return viewRow(state.playerRow, state.playerCol);
+    }
+
+    /**
+     * getter for the column of the player in the view.
+     *
+     * @return the player column
+     */
+    int getPlayerCol() {
+        return viewCol(state.playerRow, state.playerCol);
+    }
+
+    /**
+     * getter for the row of the goal in the view.
+     *
+     * @return the goal row
+     */
+    int getGoalRow() {
+        return viewRow(state.goalRow, state.goalCol);
+    }
+
+    /**
+     * getter for the column of the goal in the view.
+     *
+     * @return the goal column
+     */
+    int getGoalCol() {
+        return viewCol(state.goalRow, state.goalCol);
+    }
+
+    /**
+     * copy the view into a new GameState.
+     *
+     * @return a state holding the rotated board
+     */
+    GameState materialize() {
+        int height = getHeight();
+        int width = getWidth();
+        GameState copy = new GameState(height, width, getPlayerRow(),
+                getPlayerCol(), getGoalRow(), getGoalCol());
+        for (int i = 0; i < height; i++) {
+            for (int j = 0; j < width; j++) {
+                copy.setTile(i, j, getTile(i, j));
+            }
+        }
+        copy.levelPassed = state.levelPassed;
+        return copy;
+    }
+
+    /**
+     * where a board position shows up in the view, the row part.
+     *
+     * @param row the row on the board
+     * @param col the column on the board
+     * @return the row in the view
+     */
+    private int viewRow(int row, int col) {
+        switch (turns) {
+            case 0:
+                return row;
+            case 1:
+                return state.width - 1 - col;
+            case 2:
+                return state.height - 1 - row;
+            default:
+                return col;
+        }
+    }
+
+    /**
+     * where a board position shows up in the view, the column part.
+     *
+     * @param row the row on the board
+     * @param col the column on the board
+     * @return the column in the view
+     */
+    private int viewCol(int row, int col) {
+        switch (turns) {
+            case 0:
+                return col;
+            case 1:
+                return row;
+            case 2:
+                return state.width - 1 - col;
+            default:
+                return state.height - 1 - row;
+        }
+    }
+
+    /**
+     * the tile a tile turns into after one counterclockwise turn.
+     *
+     * @param tile the char of the tile
+     * @return the turned tile, only zappers change
+     */
+    private static char turnOnce(char tile) {
+        switch (tile) {
+            case GameState.UP_ZAP_CHAR:
+                return GameState.LEFT_ZAP_CHAR;
+            case GameState.LEFT_ZAP_CHAR:
+                return GameState.DOWN_ZAP_CHAR;
+            case GameState.DOWN_ZAP_CHAR:
+                return GameState.RIGHT_ZAP_CHAR;
+            case GameState.RIGHT_ZAP_CHAR:
+                return GameState.UP_ZAP_CHAR;
+            default:
+                return tile;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * File header for SaveWriter.java
+ * Description: Writes saved games on a background thread, so the thread
+ * asking for a save never waits for the disk.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class header: SaveWriter
+ * save() copies the board, which is one array copy, and returns. The copy
+ * waits in a map keyed by the file name, so a save asked for before the
+ * last one to the same file was written replaces it, and a burst of saves
+ * is written once with the newest board. A single daemon thread writes the
+ * waiting saves through LevelFormat.saveDurable, which writes a temporary
+ * file and renames it over the save, so a save cut short by a crash leaves
+ * the last good save in place. A failed save is printed and kept, and
+ * flush() waits for the saves asked for so far and throws the last
+ * failure. shutdown() does the same and stops the thread, the game calls
+ * it before it exits.
+ */
+public class SaveWriter {
+    ConcurrentHashMap<String, GameState> waiting; // newest board per file
+    AtomicBoolean scheduled; // whether a write is on its way
+    ExecutorService executor; // the writer thread
+    volatile IOException failure; // the last failed save, or null
+    AtomicLong requested; // the number of saves asked for
+    AtomicLong written; // the number of saves written
+
+    /**
+     * create a writer, its thread starts with the first save.
+     */
+    public SaveWriter() {
+        this.waiting = new ConcurrentHashMap<String, GameState>();
+        this.scheduled = new AtomicBoolean();
+        this.requested = new AtomicLong();
+        this.written = new AtomicLong();
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "save-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * ask for a board to be saved, from any thread. The board is copied
+     * before this returns, so it can be changed right away.
+     *
+     * @param state    the board to save
+     * @param filename the file to write, in the format its name asks for
+     */
+    void save(GameState state, String filename) {
+        waiting.put(filename, new GameState(state));
+        requested.incrementAndGet();
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::writeWaiting);
+        }
+    }
+
+    /**
+     * wait for every save asked for so far to be written.
+     *
+     * @throws IOException the last save that failed since the last flush
+     */
+    void flush() throws IOException {
+        try {
+            executor.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        IOException last = failure;
+        failure = null;
+        if (last != null) {
+            throw last;
+        }
+    }
+
+    /**
+     * write the waiting saves and stop the writer thread.
+     *
+     * @throws IOException the last save that failed
+     */
+    void shutdown() throws IOException {
+        try {
+            flush();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * write every waiting save, on the writer thread.
+     */
+    private void writeWaiting() {
+        // saves asked for from now on need a write of their own
+        scheduled.set(false);
+        for (String filename : waiting.keySet()) {
+            GameState state = waiting.remove(filename);
+            if (state == null) {
+                continue;
+            }
+            try {
+                LevelFormat.saveDurable(state, filename);
+                written.incrementAndGet();
+                System.out.println("Saved current state to: " + filename);
+            } catch (IOException e) {
+                failure = e;
+                System.err.println("Could not save to " + filename
+                        + ", the last save is kept: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * File header for SessionLog.java
+ * Description: Appends every move and undo of a game to a log file, with a
+ * snapshot of the board every so often, so the session can be replayed.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Class header: SessionLog
+ * A session log (version 1) is
+ *   int    magic, the bytes "SLSL"
+ *   short  version
+ *   the board the session started from, in the binary format of
+ *   LevelFormat
+ * followed by one record per input, in the order they were given
+ *   byte   a move: the ordinal of its Direction, plus EFFECTIVE if it
+ *          changed the board
+ *   byte   an undo: UNDO, plus EFFECTIVE if there was a move to undo
+ *   byte   a keyframe: KEYFRAME, followed by the board after the input
+ *          before it, in the binary format of LevelFormat
+ * Only effective moves can be undone, so the moves form a tree: a move is
+ * a child of the board it was made on and an undo goes back to the parent.
+ * A keyframe is written whenever the board is KEYFRAME_DISTANCE effective
+ * moves away from its closest ancestor with a keyframe, which bounds the
+ * moves SessionReplayer has to make to show any point of the session.
+ * Every record is flushed as it is written, so a session that ends with
+ * System.exit keeps every input.
+ */
+public class SessionLog implements Closeable {
+    // the first four bytes of a session log, "SLSL"
+    static final int MAGIC = 0x534c534c;
+    // the current version of the session log format
+    static final short VERSION = 1;
+    // the bytes of the magic and the version
+    static final int HEADER_SIZE = 6;
+    // the record of an undo
+    static final int UNDO = 0x08;
+    // added to a move or an undo that changed the board
+    static final int EFFECTIVE = 0x10;
+    // the record of a keyframe
+    static final int KEYFRAME = 0x20;
+    // masks the Direction ordinal of a move record
+    static final int DIRECTION_MASK = 0x03;
+    // the most effective moves between a board and its keyframe
+    static final int KEYFRAME_DISTANCE = 256;
+    // starting capacity of the distance stack
+    private static final int INITIAL_CAPACITY = 64;
+
+    DataOutputStream out; // the log file
+    int[] distance; // moves from every board on the path to its keyframe
+    int depth; // the number of effective moves on the path to the board
+    long inputs; // the number of moves and undos logged
+
+    /**
+     * create a log file, replacing any old one, starting from a board.
+     *
+     * @param filename the log file
+     * @param start    the board the session starts from
+     * @throws IOException if the file can not be written
+     */
+    public SessionLog(String filename, GameState start) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(filename)));
+        this.distance = new int[INITIAL_CAPACITY];
+        this.out.writeInt(MAGIC);
+        this.out.writeShort(VERSION);
+        writeState(start);
+        this.out.flush();
+    }
+
+    /**
+     * log a move.
+     *
+     * @param direction the direction of the move
+     * @param effective whether the move changed the board
+     * @param state     the board after the move
+     * @throws IOException if the file can not be written
+     */
+    void move(Direction direction, boolean effective, GameState state)
+            throws IOException {
+        out.writeByte(direction.ordinal() | (effective ? EFFECTIVE : 0));
+        inputs = inputs + 1;
+        if (effective) {
+            depth = depth + 1;
+            if (depth == distance.length) {
+                distance = Arrays.copyOf(distance, depth * 2);
+            }
+            distance[depth] = distance[depth - 1] + 1;
+            if (distance[depth] >= KEYFRAME_DISTANCE) {
+                out.writeByte(KEYFRAME);
+                writeState(state);
+                distance[depth] = 0;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * log an undo.
+     *
+     * @param effective whether there was a move to undo
+     * @throws IOException if the file can not be written
+     */
+    void undo(boolean effective) throws IOException {
+        out.writeByte(UNDO | (effective ? EFFECTIVE : 0));
+        inputs = inputs + 1;
+        if (effective && depth > 0) {
+            depth = depth - 1;
+        }
+        out.flush();
+    }
+
+    /**
+     * close the log file.
+     *
+     * @throws IOException if the file can not be closed
+     */
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * write a board in the binary format of LevelFormat.
+     *
+     * @param state the board
+     * @throws IOException if the file can not be written
+     */
+    private void writeState(GameState state) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(
+                LevelFormat.binarySize(state.height, state.width));
+        LevelFormat.encode(state, buffer);
+        out.write(buffer.array(), 0, buffer.position());
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * File header for SessionReplayer.java
+ * Description: Reads a session log and shows the board at any input of the
+ * session, starting from the closest snapshot instead of the beginning.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Class header: SessionReplayer
+ * Reading a log builds the tree of effective moves described in
+ * SessionLog: node 0 is the starting board, every effective move adds a
+ * node under the current one, and an undo goes back to the parent. For
+ * every input the replayer keeps the node it ended on, and for every node
+ * with a keyframe where the keyframe is in the log. Seeking to an input
+ * walks up from its node to the closest node with a keyframe, decodes that
+ * board and makes only the moves back down, at most KEYFRAME_DISTANCE of
+ * them however long the session is.
+ */
+public class SessionReplayer {
+    // starting capacity of the node and input arrays
+    private static final int INITIAL_CAPACITY = 1024;
+
+    ByteBuffer log; // the whole log file
+    int[] parent; // the parent of every node, -1 for the start
+    byte[] direction; // the ordinal of the move into every node
+    int[] keyframe; // where the keyframe of every node is, or -1
+    int nodeCount; // the number of nodes
+    int[] nodeAt; // the node after every input, nodeAt[0] is the start
+    int inputCount; // the number of inputs
+    int effectiveMoves; // the number of effective moves
+    int keyframes; // the number of keyframes, the start included
+
+    /**
+     * read a session log.
+     *
+     * @param filename the log file
+     * @throws IOException if the file can not be read or is no log
+     */
+    public SessionReplayer(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename),
+                StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            this.log = buffer;
+        }
+        if (log.remaining() < SessionLog.HEADER_SIZE
+                || log.getInt() != SessionLog.MAGIC) {
+            throw new IOException(filename + " is not a session log");
+        }
+        short version = log.getShort();
+        if (version != SessionLog.VERSION) {
+            throw new IOException("unknown session log version " + version);
+        }
+        this.parent = new int[INITIAL_CAPACITY];
+        this.direction = new byte[INITIAL_CAPACITY];
+        this.keyframe = new int[INITIAL_CAPACITY];
+        this.nodeAt = new int[INITIAL_CAPACITY];
+        this.parent[0] = -1;
+        this.keyframe[0] = log.position();
+        this.nodeCount = 1;
+        this.keyframes = 1;
+        skipState();
+        int node = 0;
+        while (log.hasRemaining()) {
+            int record = log.get() & 0xff;
+            if (record == SessionLog.KEYFRAME) {
+                keyframe[node] = log.position();
+                keyframes = keyframes + 1;
+                skipState();
+                continue;
+            }
+            boolean effective = (record & SessionLog.EFFECTIVE) != 0;
+            if ((record & SessionLog.UNDO) != 0) {
+                if (effective && parent[node] >= 0) {
+                    node = parent[node];
+                }
+            } else if (effective) {
+                node = addNode(node, record & SessionLog.DIRECTION_MASK);
+                effectiveMoves = effectiveMoves + 1;
+            }
+            inputCount = inputCount + 1;
+            if (inputCount == nodeAt.length) {
+                nodeAt = Arrays.copyOf(nodeAt, inputCount * 2);
+            }
+            nodeAt[inputCount] = node;
+        }
+    }
+
+    /**
+     * getter for the number of moves and undos in the session.
+     *
+     * @return the number of inputs
+     */
+    int size() {
+        return inputCount;
+    }
+
+    /**
+     * the board after the given number of inputs.
+     *
+     * @param input the number of inputs, from 0 for the start to size()
+     * @return a new state holding the board
+     * @throws IOException if a keyframe is broken
+     */
+    GameState stateAt(int input) throws IOException {
+        if (input < 0 || input > inputCount) {
+            throw new IndexOutOfBoundsException("input " + input + " of "
+                    + inputCount);
+        }
+        // the moves from the closest keyframe down to the node, backwards
+        int node = nodeAt[input];
+        int[] path = new int[SessionLog.KEYFRAME_DISTANCE + 1];
+        int length = 0;
+        while (keyframe[node] < 0) {
+            if (length == path.length) {
+                path = Arrays.copyOf(path, length * 2);
+            }
+            path[length] = node;
+            length = length + 1;
+            node = parent[node];
+        }
+        GameState state = LevelFormat.decode(
+                log.duplicate().position(keyframe[node]));
+        Direction[] directions = Direction.values();
+        for (int i = length - 1; i >= 0; i--) {
+            state.move(directions[direction[path[i]]]);
+        }
+        return state;
+    }
+
+    /**
+     * add a node for an effective move.
+     *
+     * @param from the node the move was made on
+     * @param move the ordinal of the direction of the move
+     * @return the new node
+     */
+    private int addNode(int from, int move) {
+        if (nodeCount == parent.length) {
+            int capacity = nodeCount * 2;
+            parent = Arrays.copyOf(parent, capacity);
+            direction = Arrays.copyOf(direction, capacity);
+            keyframe = Arrays.copyOf(keyframe, capacity);
+        }
+        parent[nodeCount] = from;
+        direction[nodeCount] = (byte) move;
+        keyframe[nodeCount] = -1;
+        nodeCount = nodeCount + 1;
+        return nodeCount - 1;
+    }
+
+    /**
+     * move past a board in the binary format of LevelFormat.
+     *
+     * @throws IOException if the log ends inside the board
+     */
+    private void skipState() throws IOException {
+        if (log.remaining() < LevelFormat.HEADER_SIZE) {
+            throw new IOException("session log is cut short");
+        }
+        // the height and width follow the magic and the version
+        int height = log.getInt(log.position() + Integer.BYTES
+                + Short.BYTES);
+        int width = log.getInt(log.position() + 2 * Integer.BYTES
+                + Short.BYTES);
+        long size = LevelFormat.binarySize(height, width);
+        if (height <= 0 || width <= 0 || size > log.remaining()) {
+            throw new IOException("session log is cut short");
+        }
+        log.position(log.position() + (int) size);
+    }
+
+    /**
+     * play every level with a session log and a random script, and check
+     * that the log gives back the board after every input.
+     *
+     * @param levels the levels
+     * @return true if every board of every session replayed equal
+     * @throws IOException if a level or a log can not be read
+     */
+    static boolean checkReplay(List<BatchRunner.LevelRef> levels)
+            throws IOException {
+        SplittableRandom random = new SplittableRandom(
+                BatchRunner.CHECK_SEED);
+        Path file = Files.createTempFile("session", ".log");
+        boolean same = true;
+        for (BatchRunner.LevelRef ref : levels) {
+            Streamline game = new Streamline(ref.load());
+            List<GameState> states = new ArrayList<GameState>();
+            states.add(new GameState(game.currentState));
+            game.startLog(file.toString());
+            String script = BatchRunner.randomScript(random,
+                    BatchRunner.CHECK_INPUTS);
+            for (int i = 0; i < script.length()
+                    && !game.currentState.levelPassed; i++) {
+                // a redo with nothing to redo is not logged
+                boolean logged = script.charAt(i) != 'r'
+                        || game.previousMoves.redoDirection() != null;
+                BatchRunner.apply(game, script.charAt(i));
+                if (logged) {
+                    states.add(new GameState(game.currentState));
+                }
+            }
+            game.stopLog();
+            SessionReplayer replayer = new SessionReplayer(file.toString());
+            same = same && replayer.size() == states.size() - 1;
+            for (int k = 0; same && k < states.size(); k++) {
+                same = replayer.stateAt(k).equals(states.get(k));
+            }
+        }
+        Files.delete(file);
+        return same;
+    }
+
+    /**
+     * print the board of a session log at the given inputs, or its summary
+     * and its last board, or check the replay of levels with -check.
+     *
+     * @param args the log file and input numbers, or -check and the levels
+     * @throws IOException if the log can not be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 2 && args[0].equals("-check")) {
+            List<BatchRunner.LevelRef> levels =
+                    BatchRunner.levelsOf(args[1]);
+            System.out.println("session replay of " + levels.size()
+                    + " levels: " + (checkReplay(levels) ? "ok"
+                    : "FAILED"));
+            return;
+        }
+        if (args.length == 0) {
+            System.out.println("Usage: java SessionReplayer <session log> "
+                    + "[input number]...\n       java SessionReplayer "
+                    + "-check <level file, directory or pack>\n  plays the "
+                    + "levels at random and checks that their logs replay "
+                    + "every board");
+            return;
+        }
+        long begin = System.nanoTime();
+        SessionReplayer replayer = new SessionReplayer(args[0]);
+        System.out.printf("%d inputs, %d effective moves, %d keyframes, "
+                + "read in %.1f ms\n", replayer.size(),
+                replayer.effectiveMoves, replayer.keyframes,
+                (System.nanoTime() - begin) / 1e6);
+        if (args.length == 1) {
+            System.out.print(replayer.stateAt(replayer.size()));
+        }
+        for (int i = 1; i < args.length; i++) {
+            int input = Integer.parseInt(args[i]);
+            begin = System.nanoTime();
+            GameState state = replayer.stateAt(input);
+            System.out.printf("after input %d (%.3f ms):\n", input,
+                    (System.nanoTime() - begin) / 1e6);
+            System.out.print(state);
+        }
+    }
+}
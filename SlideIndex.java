@@ -0,0 +1,223 @@
+/**
+ * File header for SlideIndex.java
+ * Description: Keeps track of the blocking tiles of a board, so that a slide
+ * can find where it stops without walking the board tile by tile.
+ * name: Yuanhao Zhu
+ */
+
+/**
+ * Class header: SlideIndex
+ * Every tile that is not SPACE_CHAR blocks a slide. The blocking tiles are
+ * kept twice, once as a bitset for every row and once as a bitset for every
+ * column, so the next blocking tile in any of the four directions is found
+ * 64 tiles at a time. Trail writes set bits, and tiles going back to
+ * SPACE_CHAR (undo) clear them, so the index never has to be rebuilt.
+ */
+public class SlideIndex {
+    // number of bits in one word of a bitset
+    private static final int WORD_BITS = 64;
+    // shift to go from a bit position to a word position
+    private static final int WORD_SHIFT = 6;
+    // mask to go from a bit position to the position inside its word
+    private static final int WORD_MASK = 63;
+
+    int height; // the number of rows of the board
+    int width; // the number of columns of the board
+    int rowWords; // the number of words of the bitset of one row
+    int colWords; // the number of words of the bitset of one column
+    long[] rowBits; // bitsets of every row, one after the other
+    long[] colBits; // bitsets of every column, one after the other
+
+    /**
+     * build the index for the current tiles of the given state.
+     *
+     * @param state the state whose blocking tiles are indexed
+     */
+    public SlideIndex(GameState state) {
+        this.height = state.height;
+        this.width = state.width;
+        this.rowWords = (width + WORD_MASK) >>> WORD_SHIFT;
+        this.colWords = (height + WORD_MASK) >>> WORD_SHIFT;
+        this.rowBits = new long[height * rowWords];
+        this.colBits = new long[width * colWords];
+        byte[] tiles = state.tiles;
+        for (int i = 0; i < height; i++) {
+            int rowStart = i * width;
+            for (int j = 0; j < width; j++) {
+                if (tiles[rowStart + j] != GameState.SPACE_CHAR) {
+                    setBlocked(i, j);
+                }
+            }
+        }
+    }
+
+    /**
+     * a copy constructor, copies the bitsets of other.
+     *
+     * @param other the index we want to copy from
+     */
+    public SlideIndex(SlideIndex other) {
+        this.height = other.height;
+        this.width = other.width;
+        this.rowWords = other.rowWords;
+        this.colWords = other.colWords;
+        this.rowBits = other.rowBits.clone();
+        this.colBits = other.colBits.clone();
+    }
+
+    /**
+     * mark a tile as blocking.
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     */
+    void setBlocked(int row, int col) {
+        rowBits[row * rowWords + (col >>> WORD_SHIFT)] |= 1L << col;
+        colBits[col * colWords + (row >>> WORD_SHIFT)] |= 1L << row;
+    }
+
+    /**
+     * mark a tile as empty.
+     *
+     * @param row the row of the tile
+     * @param col the column of the tile
+     */
+    void clearBlocked(int row, int col) {
+        rowBits[row * rowWords + (col >>> WORD_SHIFT)] &= ~(1L << col);
+        colBits[col * colWords + (row >>> WORD_SHIFT)] &= ~(1L << row);
+    }
+
+    /**
+     * mark the tiles from column fromCol (inclusive) to toCol (exclusive) of
+     * one row as blocking. The row bitset is filled a word at a time.
+     *
+     * @param row     the row of the tiles
+     * @param fromCol the first column to mark
+     * @param toCol   one past the last column to mark
+     */
+    void setRowRange(int row, int fromCol, int toCol) {
+        setRange(rowBits, row * rowWords, fromCol, toCol);
+        for (int j = fromCol; j < toCol; j++) {
+            colBits[j * colWords + (row >>> WORD_SHIFT)] |= 1L << row;
+        }
+    }
+
+    /**
+     * mark the tiles from row fromRow (inclusive) to toRow (exclusive) of
+     * one column as blocking. The column bitset is filled a word at a time.
+     *
+     * @param col     the column of the tiles
+     * @param fromRow the first row to mark
+     * @param toRow   one past the last row to mark
+     */
+    void setColRange(int col, int fromRow, int toRow) {
+        setRange(colBits, col * colWords, fromRow, toRow);
+        for (int i = fromRow; i < toRow; i++) {
+            rowBits[i * rowWords + (col >>> WORD_SHIFT)] |= 1L << col;
+        }
+    }
+
+    /**
+     * find the nearest blocking tile in the given direction, not counting
+     * the tile we start from.
+     *
+     * @param row       the row we start from
+     * @param col       the column we start from
+     * @param direction the direction we look in
+     * @return the column (LEFT, RIGHT) or the row (UP, DOWN) of the blocking
+     * tile, -1 or the width/height of the board if the edge comes first
+     */
+    int nextBlocked(int row, int col, Direction direction) {
+        switch (direction) {
+            case LEFT:
+                return prevSet(rowBits, row * rowWords, col - 1);
+            case RIGHT:
+                return nextSet(rowBits, row * rowWords, rowWords, col + 1,
+                        width);
+            case UP:
+                return prevSet(colBits, col * colWords, row - 1);
+            default:
+                return nextSet(colBits, col * colWords, colWords, row + 1,
+                        height);
+        }
+    }
+
+    /**
+     * set the bits from (inclusive) to (exclusive) of one bitset.
+     *
+     * @param bits the array holding the bitset
+     * @param base the first word of the bitset
+     * @param from the first bit to set
+     * @param to   one past the last bit to set
+     */
+    private static void setRange(long[] bits, int base, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int first = from >>> WORD_SHIFT;
+        int last = (to - 1) >>> WORD_SHIFT;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (WORD_BITS - to);
+        if (first == last) {
+            bits[base + first] |= firstMask & lastMask;
+            return;
+        }
+        bits[base + first] |= firstMask;
+        for (int w = first + 1; w < last; w++) {
+            bits[base + w] = -1L;
+        }
+        bits[base + last] |= lastMask;
+    }
+
+    /**
+     * find the first set bit at or after from in one bitset.
+     *
+     * @param bits  the array holding the bitset
+     * @param base  the first word of the bitset
+     * @param words the number of words of the bitset
+     * @param from  the first bit to look at
+     * @param limit the number of bits of the bitset
+     * @return the position of the bit, limit if there is none
+     */
+    private static int nextSet(long[] bits, int base, int words, int from,
+                               int limit) {
+        if (from >= limit) {
+            return limit;
+        }
+        int w = from >>> WORD_SHIFT;
+        long word = bits[base + w] & (-1L << from);
+        while (word == 0) {
+            w = w + 1;
+            if (w >= words) {
+                return limit;
+            }
+            word = bits[base + w];
+        }
+        return (w << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+    }
+
+    /**
+     * find the last set bit at or before from in one bitset.
+     *
+     * @param bits the array holding the bitset
+     * @param base the first word of the bitset
+     * @param from the first bit to look at
+     * @return the position of the bit, -1 if there is none
+     */
+    private static int prevSet(long[] bits, int base, int from) {
+        if (from < 0) {
+            return -1;
+        }
+        int w = from >>> WORD_SHIFT;
+        long word = bits[base + w] & (-1L >>> (WORD_MASK - (from & WORD_MASK)));
+        while (word == 0) {
+            w = w - 1;
+            if (w < 0) {
+                return -1;
+            }
+            word = bits[base + w];
+        }
+        return (w << WORD_SHIFT) + WORD_MASK
+                - Long.numberOfLeadingZeros(word);
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * File header for SolverEngine.java
+ * Description: Expands search states of one level for the solvers, moving a
+ * single working GameState back and forth instead of copying boards.
+ * name: Yuanhao Zhu
+ */
+
+/**
+ * Class header: SolverEngine
+ * Every state reachable from a level differs from the start only in tiles
+ * that turned into TRAIL_CHAR, plus the tile the player stands on. So a
+ * state is stored as a bitset of the cells changed since the start and the
+ * flat index of the player cell. The engine loads such a state into its
+ * working GameState through the journal, tries a move, reads the changed
+ * cells of the move back out of the journal and undoes it again. One engine
+ * is used by one thread at a time.
+ */
+public class SolverEngine {
+    // shift to go from a cell to the word of the bitset holding it
+    private static final int WORD_SHIFT = 6;
+    // mask to go from a cell to its bit inside the word
+    private static final int WORD_MASK = 63;
+
+    GameState working; // the board states are loaded into
+    MoveJournal journal; // journal of the working board
+    int words; // the number of words of the bitset of one state
+    int startCell; // the player cell of the start state
+    int goalCell; // the cell of the goal
+    long[] current; // the changed cells of the loaded state
+    int currentPlayer; // the player cell of the loaded state
+    boolean loaded; // whether the journal holds a frame loading the state
+    long lastHash; // the Zobrist hash of the state the last expand reached
+
+    /**
+     * create an engine for the level starting at the given state. The state
+     * itself is not touched.
+     *
+     * @param start the start state of the level
+     */
+    public SolverEngine(GameState start) {
+        this.working = new GameState(start);
+        this.journal = new MoveJournal();
+        this.working.journal = this.journal;
+        this.words = (this.working.tiles.length + WORD_MASK) >>> WORD_SHIFT;
+        this.startCell = this.working.index(start.playerRow, start.playerCol);
+        this.goalCell = this.working.index(start.goalRow, start.goalCol);
+        this.current = new long[this.words];
+        this.currentPlayer = this.startCell;
+    }
+
+    /**
+     * getter for the number of words of the bitset of one state.
+     *
+     * @return the number of longs a state needs
+     */
+    int words() {
+        return this.words;
+    }
+
+    /**
+     * the Zobrist hash of the start state.
+     *
+     * @return the hash of the working board before any state is loaded
+     */
+    long startHash() {
+        unload();
+        return this.working.zobristHash();
+    }
+
+    /**
+     * load a state into the working board. Every changed cell becomes
+     * TRAIL_CHAR and then the player cell becomes PLAYER_CHAR.
+     *
+     * @param bits   the array holding the changed cells of the state
+     * @param offset the first word of the state in bits
+     * @param player the player cell of the state
+     */
+    void load(long[] bits, int offset, int player) {
+        unload();
+        System.arraycopy(bits, offset, this.current, 0, this.words);
+        this.currentPlayer = player;
+        GameState state = this.working;
+        int width = state.width;
+        this.journal.beginMove(state);
+        for (int w = 0; w < this.words; w++) {
+            long word = this.current[w];
+            while (word != 0) {
+                int cell = (w << WORD_SHIFT) + Long.numberOfTrailingZeros(word);
+                state.setTile(cell / width, cell % width,
+                        GameState.TRAIL_CHAR);
+                word = word & (word - 1);
+            }
+        }
+        state.setTile(player / width, player % width, GameState.PLAYER_CHAR);
+        state.playerRow = player / width;
+        state.playerCol = player % width;
+        state.levelPassed = player == this.goalCell;
+        this.loaded = this.journal.endMove();
+    }
+
+    /**
+     * put the working board back to the start state.
+     */
+    void unload() {
+        if (this.loaded) {
+            this.journal.undo(this.working);
+            this.loaded = false;
+        }
+    }
+
+    /**
+     * try one move from the loaded state. The changed cells of the state
+     * reached are written to out, and the working board is put back to the
+     * loaded state afterwards.
+     *
+     * @param direction the direction to move in
+     * @param out       the array receiving the changed cells
+     * @param outOffset the first word of the state in out
+     * @return the player cell of the state reached, the goal cell if the
+     * move passed the level even when a zapper took the player on past the
+     * goal, -1 if the move does not change the board
+     */
+    int expand(Direction direction, long[] out, int outOffset) {
+        GameState state = this.working;
+        this.journal.beginMove(state);
+        state.move(direction);
+        if (!this.journal.endMove()) {
+            return -1;
+        }
+        System.arraycopy(this.current, 0, out, outOffset, this.words);
+        MoveJournal moves = this.journal;
+        for (int i = moves.frameStart[moves.frameCount - 1];
+             i < moves.cellCount; i++) {
+            int cell = moves.cells[i];
+            out[outOffset + (cell >>> WORD_SHIFT)] |= 1L << cell;
+        }
+        int player = state.levelPassed ? this.goalCell
+                : state.index(state.playerRow, state.playerCol);
+        this.lastHash = state.zobristHash();
+        moves.undo(state);
+        return player;
+    }
+
+    /**
+     * whether a state has the player on the goal.
+     *
+     * @param player the player cell of the state
+     * @return true if the state has passed the level
+     */
+    boolean isPassed(int player) {
+        return player == this.goalCell;
+    }
+}
@@ -19,33 +19,58 @@ public class Streamline {
     final static String OUTFILE_NAME = "saved_streamline_game";
 
     /* Add your `final static` constants here */
-
+    final static int DEFAULT_OBSTACLES = 3;
+    final static int DEFAULT_ZAPPERS = 3;
+    // set to true to autosave every level loaded from a file
+    final static String AUTOSAVE_PROPERTY = "streamline.autosave";
 
     /* Instance variables, do not add any */
     GameState currentState;
-    List<GameState> previousStates;
+    MoveJournal previousMoves;
+    // the tiles changed by every move, replayed backwards to undo
+
+    /* Recorders every move and undo is written to, null when off. They are
+       the one exception to the rule above: a recorder that does not see
+       every change of the journal breaks, so it has to live with it. Any
+       other helper of the game belongs to its caller, like the hints of
+       play() or the save writer of MoveEngine */
+    SessionLog sessionLog;
+    // every move and undo is appended to it, null if not logging
+    MoveWal autosave;
+    // every effective move and undo is appended to it, null if not
+    // autosaving
 
     /**
      * initialized the currentState with default height and width. Add 3
      * random obstacles and zappers, and put goal and payer at the default
-     * position.
+     * position. Boards that can not be passed are drawn again.
      */
     public Streamline() {
-        //Initialized the GameState
-        this.currentState = new GameState(DEFAULT_HEIGHT, DEFAULT_WIDTH,
-                DEFAULT_HEIGHT - 1, 0, 0,
-                DEFAULT_WIDTH - 1);
-        //add 3 obstacles
-        this.currentState.addRandomObstacles(3);
-        //Add 3 random zappers.
-        this.currentState.addRandomZappers(3);
-        //Initialze previous States to empty array list.
-        this.previousStates = new ArrayList<>();
+        //Initialized the GameState with 3 obstacles and 3 random zappers
+        this.currentState = LevelGenerator.randomLevel(DEFAULT_HEIGHT,
+                DEFAULT_WIDTH, DEFAULT_OBSTACLES, DEFAULT_ZAPPERS, 1,
+                new SplittableRandom(), null);
+        //Initialze the undo journal to no moves.
+        this.previousMoves = new MoveJournal();
+        this.currentState.journal = this.previousMoves;
+
+    }
 
+    /**
+     * start a game from the given state, which is used as it is.
+     *
+     * @param state the state to play
+     */
+    public Streamline(GameState state) {
+        this.currentState = state;
+        this.previousMoves = new MoveJournal();
+        this.currentState.journal = this.previousMoves;
     }
 
     /**
-     * Given constructor from the starter code.
+     * Given constructor from the starter code. An autosave of the level is
+     * left alone, see resumeAutosave(), so levels can be loaded ahead of
+     * being played.
      *
      * @param filename a file we want to read
      */
@@ -55,7 +80,9 @@ public class Streamline {
         } catch (IOException e) {
             e.printStackTrace();
         }
-        this.previousStates = new ArrayList<GameState>();
+        if (this.previousMoves == null) {
+            this.previousMoves = new MoveJournal();
+        }
     }
 
 
@@ -66,110 +93,250 @@ public class Streamline {
      * @throws IOException exception..
      */
     protected void loadFromFile(String filename) throws IOException {
-        /**
-        //read the specified instance variables
-        File file = new File(filename);
-        Scanner sc = new Scanner(file);
-        String line1 = sc.nextLine();
-        String line2 = sc.nextLine();
-        String line3 = sc.nextLine();
-        //read all the instance variables
-        int height = Character.getNumericValue(line1.charAt(0));
-        int width = Character.getNumericValue(line1.charAt(2));
-        int prow = Character.getNumericValue(line2.charAt(0));
-        int pcol = Character.getNumericValue(line2.charAt(2));
-        int grow = Character.getNumericValue(line3.charAt(0));
-        int gcol = Character.getNumericValue(line3.charAt(2));
-        this.currentState
-                = new GameState(height, width, prow, pcol, grow, gcol);
-        int currow = 0;
-        int count = 0;
-        char[][] b = new char[height][width];
-        // copy the boards as in the txt file
-        while (count < height && sc.hasNextLine()) {
-            String line = sc.nextLine();
-            for (int i = 0; i < 5; i++) {
-                b[currow][i] = line.charAt(i);
+        EngineEvents.LevelLoadEvent event =
+                new EngineEvents.LevelLoadEvent();
+        event.begin();
+        boolean timed = EngineMetrics.enabled;
+        long start = timed ? System.nanoTime() : 0;
+        long allocated = EngineMetrics.allocatedBytes();
+        // the file may be in the text or the binary format
+        previousMoves = new MoveJournal();
+        currentState = LevelFormat.load(filename);
+        // the loaded tiles are not a move, start journaling from here
+        currentState.journal = previousMoves;
+        if (timed) {
+            EngineMetrics.recordAllocated(EngineMetrics.GLOBAL.loadBytes,
+                    allocated);
+            EngineMetrics.GLOBAL.load.record(System.nanoTime() - start);
+        }
+        if (event.shouldCommit()) {
+            event.file = filename;
+            event.boardWidth = currentState.width;
+            event.boardHeight = currentState.height;
+            event.commit();
+        }
+    }
 
+    /**
+     * save the current state of teh game before it gets updated.
+     * @param direction the direction the player going to move next.
+     */
+    void recordAndMove(Direction direction) {
+        if (direction == null) {
+            return;
+        }
+        EngineEvents.MoveEvent event = null;
+        if (EngineEvents.recording) {
+            event = new EngineEvents.MoveEvent();
+            event.begin();
+        }
+        // no clock reads unless the metrics are on, see EngineMetrics
+        boolean timed = EngineMetrics.enabled;
+        long start = timed ? System.nanoTime() : 0;
+        // record the tiles the move overwrites, a move that changes
+        // nothing is dropped from the journal
+        this.previousMoves.beginMove(this.currentState, direction);
+        int cellsBefore = this.previousMoves.cellCount;
+        this.currentState.move(direction);
+        int cellsChanged = this.previousMoves.cellCount - cellsBefore;
+        long slideEnd = timed ? System.nanoTime() : 0;
+        boolean changed = this.previousMoves.endMove();
+        if (changed && this.autosave != null) {
+            autosaveRecord(direction.ordinal() | SessionLog.EFFECTIVE);
+        }
+        if (this.sessionLog != null) {
+            try {
+                this.sessionLog.move(direction, changed, this.currentState);
+            } catch (IOException e) {
+                e.printStackTrace();
+                stopLog();
             }
-            currow = currow + 1;
-            count = count + 1;
+        }
+        if (timed) {
+            EngineMetrics metrics = EngineMetrics.GLOBAL;
+            // beginMove only opens a frame, the time is the slide
+            metrics.slide.record(slideEnd - start);
+            metrics.slideLength.record(this.currentState.slideLength);
+            metrics.zapperChain.record(this.currentState.zapperChain);
+            recordHistory();
+            metrics.move.record(System.nanoTime() - start);
+        }
+        if (event != null && event.shouldCommit()) {
+            event.direction = direction.name();
+            event.boardWidth = this.currentState.width;
+            event.boardHeight = this.currentState.height;
+            event.cellsChanged = cellsChanged;
+            event.slideLength = this.currentState.slideLength;
+            event.zapperChain = this.currentState.zapperChain;
+            event.commit();
+        }
+    }
 
+    /**
+     * Undo the last step based on teh previous step
+     */
+    void undo() {
+        EngineEvents.UndoEvent event = null;
+        if (EngineEvents.recording) {
+            event = new EngineEvents.UndoEvent();
+            event.begin();
+        }
+        boolean timed = EngineMetrics.enabled;
+        long start = timed ? System.nanoTime() : 0;
+        int cellsBefore = this.previousMoves.cellCount;
+        // write back the tiles of the last move in reverse, does nothing
+        // if there is no previous step
+        boolean undone = this.previousMoves.undo(this.currentState);
+        int cellsRestored = cellsBefore - this.previousMoves.cellCount;
+        if (undone && this.autosave != null) {
+            autosaveRecord(SessionLog.UNDO | SessionLog.EFFECTIVE);
+        }
+        if (this.sessionLog != null) {
+            try {
+                this.sessionLog.undo(undone);
+            } catch (IOException e) {
+                e.printStackTrace();
+                stopLog();
+            }
         }
-        this.currentState.board = b;
-        if (prow == grow && pcol == gcol) {
-            this.currentState.levelPassed = true;
+        if (timed) {
+            recordHistory();
+            EngineMetrics.GLOBAL.undo.record(System.nanoTime() - start);
         }
-*/
-        //read the specified instance variables
-        Scanner sc = new Scanner(new File(filename));
-        int height = sc.nextInt();
-        int width = sc.nextInt();
-        int pRow = sc.nextInt();
-        int pCol = sc.nextInt();
-        int gRow = sc.nextInt();
-        int gCol = sc.nextInt();
+        if (event != null && event.shouldCommit()) {
+            event.undone = undone;
+            event.cellsRestored = cellsRestored;
+            event.commit();
+        }
+    }
 
-        sc.nextLine();
-        GameState OGame = new GameState(height, width, pRow, pCol, gRow, gCol);
-        previousStates = new ArrayList<GameState>();
-        currentState = OGame;
+    /**
+     * update the gauges of the undo history in EngineMetrics.
+     */
+    private void recordHistory() {
+        // read by other threads only for the dumps, no fence needed
+        EngineMetrics.GLOBAL.historyMoves.lazySet(
+                this.previousMoves.frameCount);
+        EngineMetrics.GLOBAL.historyCells.lazySet(
+                this.previousMoves.cellCount);
+    }
 
-        if (currentState.playerRow == currentState.goalRow &&
-                currentState.playerCol == currentState.goalCol) {
-            currentState.levelPassed = true;
+    /**
+     * make the move last undone from the current board again. After
+     * several undos the moves come back in order. Undone moves stay in a
+     * tree, see MoveJournal, so going back down an undone branch brings
+     * back the redos of that branch too.
+     */
+    void redo() {
+        // the move is made again, so it is journaled and logged like any
+        Direction direction = this.previousMoves.redoDirection();
+        if (direction != null) {
+            recordAndMove(direction);
         }
-        //set up a counter
-        int counter = 0;
+    }
 
-        while (sc.hasNext()) {
-            String board = sc.nextLine();
-            for (int i = 0; i < width; i++) {
-                currentState.board[counter][i] = board.charAt(i);
+    /**
+     * start appending every move and undo to a session log, see
+     * SessionLog. The log starts from the current board, so the moves made
+     * before it can no longer be undone.
+     *
+     * @param filename the log file, replaced if it exists
+     */
+    void startLog(String filename) {
+        stopLog();
+        this.previousMoves.clear();
+        if (this.autosave != null) {
+            // the autosave must not replay undos of the cleared moves
+            try {
+                this.autosave.compact(this);
+            } catch (IOException e) {
+                e.printStackTrace();
+                this.autosave = null;
             }
-            counter++;
         }
-
+        try {
+            this.sessionLog = new SessionLog(filename, this.currentState);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
-     * save the current state of teh game before it gets updated.
-     * @param direction the direction the player going to move next.
+     * start autosaving a level loaded from a file once it is played, if
+     * AUTOSAVE_PROPERTY is set or the level already has an autosave, which
+     * brings the game back to where it was left.
+     *
+     * @param filename the level file the game was loaded from
      */
-    void recordAndMove(Direction direction) {
-        if (direction == null) {
-            return;
+    void resumeAutosave(String filename) {
+        // a level that could not be loaded has nothing to autosave
+        if (this.currentState != null && this.autosave == null
+                && (Boolean.getBoolean(AUTOSAVE_PROPERTY)
+                || MoveWal.exists(filename))) {
+            startAutosave(filename);
         }
-        // record the previous steps in an arraylist
-        GameState copy = new GameState(this.currentState);
-        this.previousStates.add(copy);
-        this.currentState.move(direction);
-        if (copy.equals(this.currentState)) {
-            this.previousStates.remove(copy);
+    }
+
+    /**
+     * start autosaving the game, recovering it first if the level already
+     * has an autosave.
+     *
+     * @param filename the level file the game was loaded from
+     */
+    void startAutosave(String filename) {
+        try {
+            this.autosave = new MoveWal(this, filename);
+            if (this.autosave.recovered > 0) {
+                System.out.println("Recovered " + this.autosave.recovered
+                        + " moves of " + filename);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            this.autosave = null;
         }
+    }
 
+    /**
+     * append a move or an undo to the autosave, which is removed once the
+     * level is passed.
+     *
+     * @param record the record, see SessionLog
+     */
+    private void autosaveRecord(int record) {
+        try {
+            if (this.currentState.levelPassed) {
+                this.autosave.delete();
+                this.autosave = null;
+            } else {
+                this.autosave.append(record, this);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            this.autosave = null;
+        }
     }
 
     /**
-     * Undo the last step based on teh previous step
+     * stop logging and close the session log, if there is one.
      */
-    void undo() {
-        //if teh previous step is empty, do nothing.
-        if (this.previousStates.size() == 0) {
+    void stopLog() {
+        if (this.sessionLog == null) {
             return;
         }
-        // go the the previous step
-        else {
-            int last = previousStates.size() - 1;
-            this.currentState = this.previousStates.get(last);
-            this.previousStates.remove(last);
+        try {
+            this.sessionLog.close();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+        this.sessionLog = null;
     }
 
     /**
      * take the keyboard input and connect to the game.
      */
     void play() {
+        // answers the h command, created the first time it is given
+        HintService hints = null;
         // run the game, don't stop unless quit or reach goal
         while (true) {
             System.out.print(this.currentState.toString());
@@ -183,12 +350,14 @@ public class Streamline {
             }
             if (!((input.equals("w")) || (input.equals("a"))
                     || (input.equals("s")) || (input.equals("d"))
-                    || (input.equals("u")) ||
+                    || (input.equals("u")) || (input.equals("r")) ||
+                    (input.equals("h")) ||
                     (input.equals("o")) || (input.equals("q")))) {
                 System.out.println(
                         "Possible commands:\n w - up\n a - left\n s - " +
                                 "down\n d - right\n u - " +
-                        "undo\n o - save to file\n q - quit level");
+                        "undo\n r - redo\n h - hint\n o - save to file" +
+                        "\n q - quit level");
                 continue;
             }
             // move up
@@ -232,6 +401,24 @@ public class Streamline {
                 undo();
                 continue;
             }
+            //redo, which can pass the level too
+            if (input.equals("r")) {
+                redo();
+                if (this.currentState.levelPassed == true) {
+                    System.out.print(currentState);
+                    System.out.println("Level passed!");
+                    break;
+                }
+                continue;
+            }
+            //hint, the next move of a shortest solution
+            if (input.equals("h")) {
+                if (hints == null) {
+                    hints = new HintService(HintService.DEFAULT_CAPACITY);
+                }
+                System.out.println(hintText(hints.hint(this.currentState)));
+                continue;
+            }
             //save the text
             if (input.equals("o")) {
                 saveToFile();
@@ -244,65 +431,44 @@ public class Streamline {
     }
 
     /**
-     * Write the Streamline game into a text file with certain format
+     * the text telling the player a hint.
+     *
+     * @param hint the answer of HintService
+     * @return the text to print
      */
-    void saveToFile() {
-        /**
-
-
-        File file = new File(OUTFILE_NAME + ".txt");
-        //write the instance variables at the top three lines
-        try {
-            PrintWriter pw = new PrintWriter(file);
-            int height = this.currentState.board.length;
-            int width = this.currentState.board[0].length;
-
-            int prow = this.currentState.playerRow;
-            int pcol = this.currentState.playerCol;
-            int grow = this.currentState.goalRow;
-            int gcol = this.currentState.goalCol;
-            pw.println(Integer.toString(height) + ' ' + width);
-            pw.println(Integer.toString(prow) + ' ' + pcol);
-            pw.println(Integer.toString(grow) + ' ' + gcol);
-            // write the board on file char by char
-            for (int i = 0; i < currentState.board.length; i++) {
-                StringBuilder s = new StringBuilder();
-                for (int j = 0; j < currentState.board[0].length; j++) {
-                    s.append(this.currentState.board[i][j]);
-                }
-                String result = s.toString();
-                pw.println(result);
-            }
-            pw.close();
-            //if no file found
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+    static String hintText(HintService.Hint hint) {
+        if (hint.gaveUp) {
+            return "No hint, the board is too big to solve.";
         }
-         */
-        try {
-            PrintWriter saveFile = new PrintWriter(new File(OUTFILE_NAME));
-            saveFile.write(currentState.board.length + " " +
-                    currentState.board[0].length + "\n");
-            saveFile.write(currentState.playerRow + " " +
-                    currentState.playerCol +
-                    "\n");
-            saveFile.write(currentState.goalRow + " " +
-                    currentState.goalCol + "\n");
-
-            for (int i = 0; i < currentState.board.length; i++) {
-                StringBuilder line = new StringBuilder();
+        if (hint.move == null) {
+            return "No hint, the level can not be passed from here.";
+        }
+        return "Hint: move " + hint.move.name().toLowerCase() + ".";
+    }
 
-                for (int j = 0; j < currentState.board[0].length; j++) {
-                    line.append(currentState.board[i][j]);
-                }
-                saveFile.write(line.toString() + "\n");
-            }
-            saveFile.close();
-            System.out.println("Saved current state to: saved_streamline_game");
+    /**
+     * Write the Streamline game into a text file with certain format. A
+     * failed save keeps the last one.
+     */
+    void saveToFile() {
+        try {
+            saveToFile(OUTFILE_NAME);
+            System.out.println("Saved current state to: " + OUTFILE_NAME);
         } catch (IOException e) {
-            e.printStackTrace();
+            System.out.println("Could not save to " + OUTFILE_NAME
+                    + ", the last save is kept: " + e);
         }
+    }
 
-
+    /**
+     * Write the Streamline game into a file, in the binary format if the
+     * name ends in LevelFormat.BINARY_EXTENSION and as text otherwise.
+     * The file is replaced in one step, never left half written.
+     *
+     * @param filename the file to write
+     * @throws IOException if the file can not be written
+     */
+    void saveToFile(String filename) throws IOException {
+        LevelFormat.saveDurable(currentState, filename);
     }
 }
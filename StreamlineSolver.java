@@ -0,0 +1,388 @@
+/**
+ * File header for StreamlineSolver.java
+ * Description: Finds the shortest sequence of moves that passes a level,
+ * or tells that there is none, without any user interface.
+ * name: Yuanhao Zhu
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Class header: StreamlineSolver
+ * Breadth first search over the states reachable with GameState.move. The
+ * states are kept in flat arrays in the order they are found, which is also
+ * the order they are expanded in, and a transposition table of their
+ * Zobrist hashes makes sure every state is expanded only once. Because the
+ * search is breadth first, the first passing state found gives the shortest
+ * solution. explore() goes on past the first passing state to find every
+ * state and every move between them, and setLevel() points the solver at
+ * another level while keeping the arrays it has grown.
+ */
+public class StreamlineSolver {
+    // the order the directions are tried in, also the order of ties
+    static final Direction[] DIRECTIONS = {
+        Direction.UP, Direction.LEFT, Direction.DOWN, Direction.RIGHT
+    };
+    // the default limit on the number of states of one search
+    static final int DEFAULT_MAX_STATES = 1 << 22;
+    // starting capacity of the state arrays
+    private static final int INITIAL_CAPACITY = 1024;
+
+    SolverEngine engine; // expands the states
+    int words; // the number of longs of one state
+    int maxStates; // the search gives up after this many states
+
+    long[] bits; // the changed cells of every state, one after the other
+    int[] player; // the player cell of every state
+    int[] parent; // the state every state was reached from, -1 for start
+    byte[] move; // index in DIRECTIONS of the move reaching every state
+    long[] hash; // the Zobrist hash of every state
+    int stateCount; // the number of states found
+    int[] table; // open addressing table of state numbers plus one
+    int[] children; // the state every move of every state reaches, or -1,
+    // DIRECTIONS.length per state, null until the first explore()
+    boolean limitReached; // whether the last search ran out of states
+
+    /**
+     * create a solver for the level starting at the given state, with the
+     * default limit on the number of states.
+     *
+     * @param start the start state of the level
+     */
+    public StreamlineSolver(GameState start) {
+        this(start, DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * create a solver for the level starting at the given state.
+     *
+     * @param start     the start state of the level
+     * @param maxStates the search gives up after finding this many states
+     */
+    public StreamlineSolver(GameState start, int maxStates) {
+        this.engine = new SolverEngine(start);
+        this.words = this.engine.words();
+        this.maxStates = maxStates;
+    }
+
+    /**
+     * point the solver at another level. The state arrays of the searches
+     * so far are kept for the next one.
+     *
+     * @param start the start state of the level
+     */
+    public void setLevel(GameState start) {
+        this.engine = new SolverEngine(start);
+        this.words = this.engine.words();
+    }
+
+    /**
+     * find every state reachable from the start, in breadth first order,
+     * and the state every move of them reaches in children. States that
+     * passed the level are not expanded, as the game ends there.
+     *
+     * @return false if the state limit was reached first (see
+     * limitReached()), and the states found are only part of them
+     */
+    public boolean explore() {
+        reset();
+        if (this.children == null) {
+            // only explore() needs them, solve() stays as small as it was
+            this.children = new int[this.player.length * DIRECTIONS.length];
+        }
+        SolverEngine e = this.engine;
+        add(-1, 0, e.startCell, e.startHash());
+        int head = 0;
+        while (head < this.stateCount) {
+            int first = head * DIRECTIONS.length;
+            Arrays.fill(this.children, first, first + DIRECTIONS.length, -1);
+            if (e.isPassed(this.player[head])) {
+                head = head + 1;
+                continue;
+            }
+            e.load(this.bits, head * this.words, this.player[head]);
+            for (int d = 0; d < DIRECTIONS.length; d++) {
+                if (this.stateCount == this.maxStates) {
+                    this.limitReached = true;
+                    e.unload();
+                    return false;
+                }
+                ensureCapacity(this.stateCount + 1);
+                int offset = this.stateCount * this.words;
+                int next = e.expand(DIRECTIONS[d], this.bits, offset);
+                if (next < 0) {
+                    continue;
+                }
+                int found = find(offset, next, e.lastHash);
+                if (found < 0) {
+                    add(head, d, next, e.lastHash);
+                    found = this.stateCount - 1;
+                }
+                this.children[first + d] = found;
+            }
+            head = head + 1;
+        }
+        e.unload();
+        return true;
+    }
+
+    /**
+     * search for the shortest solution.
+     *
+     * @return the moves of the shortest solution, empty if the start state
+     * has already passed, null if the level can not be passed or the state
+     * limit was reached first (see limitReached())
+     */
+    public List<Direction> solve() {
+        reset();
+        SolverEngine e = this.engine;
+        if (e.isPassed(e.startCell)) {
+            return new ArrayList<Direction>();
+        }
+        add(-1, 0, e.startCell, e.startHash());
+        int head = 0;
+        while (head < this.stateCount) {
+            e.load(this.bits, head * this.words, this.player[head]);
+            for (int d = 0; d < DIRECTIONS.length; d++) {
+                if (this.stateCount == this.maxStates) {
+                    this.limitReached = true;
+                    e.unload();
+                    return null;
+                }
+                ensureCapacity(this.stateCount + 1);
+                int offset = this.stateCount * this.words;
+                int next = e.expand(DIRECTIONS[d], this.bits, offset);
+                if (next < 0 || find(offset, next, e.lastHash) >= 0) {
+                    continue;
+                }
+                add(head, d, next, e.lastHash);
+                if (e.isPassed(next)) {
+                    e.unload();
+                    return path(this.stateCount - 1);
+                }
+            }
+            head = head + 1;
+        }
+        e.unload();
+        return null;
+    }
+
+    /**
+     * whether the last search gave up because of the state limit.
+     *
+     * @return true if the last search was cut off
+     */
+    public boolean limitReached() {
+        return this.limitReached;
+    }
+
+    /**
+     * the number of different states the last search found.
+     *
+     * @return the number of states
+     */
+    public int statesFound() {
+        return this.stateCount;
+    }
+
+    /**
+     * clear the states of a previous search.
+     */
+    private void reset() {
+        if (this.player == null) {
+            this.bits = new long[INITIAL_CAPACITY * this.words];
+            this.player = new int[INITIAL_CAPACITY];
+            this.parent = new int[INITIAL_CAPACITY];
+            this.move = new byte[INITIAL_CAPACITY];
+            this.hash = new long[INITIAL_CAPACITY];
+            this.table = new int[INITIAL_CAPACITY * 2];
+        } else {
+            Arrays.fill(this.table, 0);
+            // a level set since may need more words per state
+            if (this.bits.length < this.player.length * this.words) {
+                this.bits = new long[this.player.length * this.words];
+            }
+        }
+        this.stateCount = 0;
+        this.limitReached = false;
+    }
+
+    /**
+     * grow the state arrays so they hold at least count states.
+     *
+     * @param count the number of states needed
+     */
+    private void ensureCapacity(int count) {
+        if (count <= this.player.length) {
+            return;
+        }
+        int capacity = this.player.length * 2;
+        this.bits = Arrays.copyOf(this.bits, capacity * this.words);
+        this.player = Arrays.copyOf(this.player, capacity);
+        this.parent = Arrays.copyOf(this.parent, capacity);
+        this.move = Arrays.copyOf(this.move, capacity);
+        this.hash = Arrays.copyOf(this.hash, capacity);
+        if (this.children != null) {
+            this.children = Arrays.copyOf(this.children,
+                    capacity * DIRECTIONS.length);
+        }
+    }
+
+    /**
+     * append the state whose changed cells are already written at the end
+     * of bits, and enter it in the table.
+     *
+     * @param from      the state it was reached from, -1 for the start
+     * @param direction index in DIRECTIONS of the move reaching it
+     * @param cell      the player cell of the state
+     * @param key       the Zobrist hash of the state
+     */
+    private void add(int from, int direction, int cell, long key) {
+        ensureCapacity(this.stateCount + 1);
+        int id = this.stateCount;
+        this.player[id] = cell;
+        this.parent[id] = from;
+        this.move[id] = (byte) direction;
+        this.hash[id] = key;
+        this.stateCount = id + 1;
+        // keep the table at most half full
+        if (this.stateCount * 2 > this.table.length) {
+            rehash(this.table.length * 2);
+        } else {
+            insert(id);
+        }
+    }
+
+    /**
+     * look a state up in the table.
+     *
+     * @param offset the first word of the changed cells of the state in bits
+     * @param cell   the player cell of the state
+     * @param key    the Zobrist hash of the state
+     * @return the number of the equal state found before, -1 if it is new
+     */
+    private int find(int offset, int cell, long key) {
+        int mask = this.table.length - 1;
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (this.table[slot] != 0) {
+            int id = this.table[slot] - 1;
+            if (this.hash[id] == key && this.player[id] == cell
+                    && Arrays.equals(this.bits, id * this.words,
+                    (id + 1) * this.words, this.bits, offset,
+                    offset + this.words)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * put a state in the first free slot of its chain.
+     *
+     * @param id the number of the state
+     */
+    private void insert(int id) {
+        int mask = this.table.length - 1;
+        long key = this.hash[id];
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        while (this.table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        this.table[slot] = id + 1;
+    }
+
+    /**
+     * build a bigger table holding every state found so far.
+     *
+     * @param size the new number of slots, a power of two
+     */
+    private void rehash(int size) {
+        this.table = new int[size];
+        for (int id = 0; id < this.stateCount; id++) {
+            insert(id);
+        }
+    }
+
+    /**
+     * follow the parents from a state back to the start.
+     *
+     * @param id the number of the last state of the path
+     * @return the moves leading from the start to the state
+     */
+    List<Direction> path(int id) {
+        List<Direction> moves = new ArrayList<Direction>();
+        for (int s = id; this.parent[s] >= 0; s = this.parent[s]) {
+            moves.add(DIRECTIONS[this.move[s]]);
+        }
+        Collections.reverse(moves);
+        return moves;
+    }
+
+    /**
+     * solve one level and print the result.
+     *
+     * @param name  the name the level is printed with
+     * @param state the level
+     */
+    static void report(String name, GameState state) {
+        StreamlineSolver solver = new StreamlineSolver(state);
+        List<Direction> solution = solver.solve();
+        if (solution != null) {
+            System.out.printf("%s: %d moves %s (%d states)\n", name,
+                    solution.size(), solution, solver.statesFound());
+        } else if (solver.limitReached()) {
+            System.out.printf("%s: gave up after %d states\n", name,
+                    solver.statesFound());
+        } else {
+            System.out.printf("%s: unsolvable (%d states)\n", name,
+                    solver.statesFound());
+        }
+    }
+
+    /**
+     * solve every level named on the command line and print the result.
+     *
+     * @param args level files, directories of level files or level packs
+     * @throws IOException if a level pack can not be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java StreamlineSolver <level file, "
+                    + "directory or pack>...");
+            return;
+        }
+        List<File> files = new ArrayList<File>();
+        for (String arg : args) {
+            File file = new File(arg);
+            if (file.isDirectory()) {
+                File[] subfiles = file.listFiles();
+                Arrays.sort(subfiles);
+                for (File subfile : subfiles) {
+                    if (!subfile.isDirectory()) {
+                        files.add(subfile);
+                    }
+                }
+            } else {
+                files.add(file);
+            }
+        }
+        for (File file : files) {
+            if (LevelPack.isPack(file.toString())) {
+                try (LevelPack pack = new LevelPack(file.toString())) {
+                    for (int i = 0; i < pack.size(); i++) {
+                        report(file + "#" + i, pack.level(i));
+                    }
+                }
+            } else {
+                Streamline level = new Streamline(file.toString());
+                report(file.toString(), level.currentState);
+            }
+        }
+    }
+}
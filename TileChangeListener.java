@@ -0,0 +1,31 @@
+/**
+ * File header for TileChangeListener.java
+ * Description: Lets a GameState tell someone, like the GUI, which tiles a
+ * move or an undo changed.
+ * name: Yuanhao Zhu
+ */
+
+/**
+ * Interface header: TileChangeListener
+ * Told about every tile a GameState writes, right after it is written, so
+ * a view can redraw the changed tiles only. A move tells about the tiles
+ * it slides over, an undo about the tiles it writes back; loading or
+ * rotating a board changes all of it at once and is told through
+ * boardChanged() instead.
+ */
+public interface TileChangeListener {
+    /**
+     * called after one tile of the board was written.
+     *
+     * @param row  the row of the tile
+     * @param col  the column of the tile
+     * @param tile the char now on the tile
+     */
+    void tileChanged(int row, int col, char tile);
+
+    /**
+     * called after every tile of the board was replaced, or the shape of
+     * the board changed.
+     */
+    void boardChanged();
+}
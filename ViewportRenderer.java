@@ -0,0 +1,256 @@
+/**
+ * File header for ViewportRenderer.java
+ * Description: Shows the part of a large board around the player at a
+ * readable size, with shapes only for the tiles in view.
+ * name: Yuanhao Zhu
+ */
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import javafx.scene.Group;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.Shape;
+
+/**
+ * Class header: ViewportRenderer
+ * A camera over the board. Only the tiles inside the window get shapes: a
+ * trail circle for every tile in view, and a rounded square or a zapper
+ * triangle for the obstacles and zappers among them. When the player gets
+ * close to the edge of the window the camera jumps to center it again, all
+ * shapes go back into pools and the new window takes its shapes from the
+ * pools, so after the first screen no shape is created and the number of
+ * nodes depends on the size of the window, not of the board.
+ */
+public class ViewportRenderer {
+    // the size of a board square in the viewport
+    static final double SQUARE_SIZE = 30;
+    // the camera moves when the player is this many tiles from its edge
+    static final int FOLLOW_MARGIN = 2;
+    // half of a tile or of the window
+    static final double HALF = 0.5;
+    // divides the window to find its middle
+    static final int HALF_DIVISOR = 2;
+
+    Group group; // the shapes in view and the pooled shapes
+    GameState state; // the board looked at
+    int viewRows; // the number of rows in view
+    int viewCols; // the number of columns in view
+    int firstRow; // the top row in view
+    int firstCol; // the left column in view
+    Circle[] trails; // the trail circle of every tile in view
+    Shape[] tiles; // the obstacle or zapper of every tile in view, or null
+    ArrayDeque<Circle> circlePool; // trail circles not in use
+    ArrayDeque<RoundedSquare> squarePool; // obstacles not in use
+    EnumMap<Direction, ArrayDeque<ZapperTriangle>> zapperPools;
+    // zappers not in use, by the direction they point
+
+    /**
+     * create a viewport that adds its shapes to the given group.
+     *
+     * @param group       the group the shapes go into, empty
+     * @param sceneWidth  the width of the window
+     * @param sceneHeight the height of the window
+     * @param state       the board to show
+     */
+    public ViewportRenderer(Group group, double sceneWidth,
+                            double sceneHeight, GameState state) {
+        this.group = group;
+        this.state = state;
+        this.viewRows = Math.min(state.getHeight(),
+                (int) Math.ceil(sceneHeight / SQUARE_SIZE));
+        this.viewCols = Math.min(state.getWidth(),
+                (int) Math.ceil(sceneWidth / SQUARE_SIZE));
+        this.trails = new Circle[viewRows * viewCols];
+        this.tiles = new Shape[viewRows * viewCols];
+        this.circlePool = new ArrayDeque<Circle>();
+        this.squarePool = new ArrayDeque<RoundedSquare>();
+        this.zapperPools =
+                new EnumMap<Direction, ArrayDeque<ZapperTriangle>>(
+                        Direction.class);
+        for (Direction direction : Direction.values()) {
+            zapperPools.put(direction, new ArrayDeque<ZapperTriangle>());
+        }
+        centerOnPlayer();
+        fillView();
+    }
+
+    /**
+     * the x of the center of a column in the scene, off the window if the
+     * column is out of view.
+     *
+     * @param col the column on the board
+     * @return the scene x
+     */
+    double sceneX(int col) {
+        return (col - firstCol + HALF) * SQUARE_SIZE;
+    }
+
+    /**
+     * the y of the center of a row in the scene, off the window if the row
+     * is out of view.
+     *
+     * @param row the row on the board
+     * @return the scene y
+     */
+    double sceneY(int row) {
+        return (row - firstRow + HALF) * SQUARE_SIZE;
+    }
+
+    /**
+     * move the camera if the player got too close to the edge of the view.
+     *
+     * @return true if the camera moved, and so did every shape in view
+     */
+    boolean follow() {
+        int row = state.playerRow - firstRow;
+        int col = state.playerCol - firstCol;
+        int rowMargin = Math.min(FOLLOW_MARGIN, (viewRows - 1) / HALF_DIVISOR);
+        int colMargin = Math.min(FOLLOW_MARGIN, (viewCols - 1) / HALF_DIVISOR);
+        if (row >= rowMargin && row < viewRows - rowMargin
+                && col >= colMargin && col < viewCols - colMargin) {
+            return false;
+        }
+        int oldRow = firstRow;
+        int oldCol = firstCol;
+        centerOnPlayer();
+        if (firstRow == oldRow && firstCol == oldCol) {
+            return false;
+        }
+        releaseView();
+        fillView();
+        return true;
+    }
+
+    /**
+     * restyle a tile that changed, if it is in view.
+     *
+     * @param row  the row of the tile
+     * @param col  the column of the tile
+     * @param tile the char now on the tile
+     */
+    void tileChanged(int row, int col, char tile) {
+        int viewRow = row - firstRow;
+        int viewCol = col - firstCol;
+        if (viewRow < 0 || viewRow >= viewRows || viewCol < 0
+                || viewCol >= viewCols) {
+            return;
+        }
+        int slot = viewRow * viewCols + viewCol;
+        if (tiles[slot] != null) {
+            release(tiles[slot]);
+            tiles[slot] = null;
+        }
+        styleSlot(slot, row, col, tile);
+    }
+
+    /**
+     * put the player as close to the middle of the view as the edges of
+     * the board allow.
+     */
+    private void centerOnPlayer() {
+        firstRow = Math.max(0, Math.min(state.getHeight() - viewRows,
+                state.playerRow - viewRows / HALF_DIVISOR));
+        firstCol = Math.max(0, Math.min(state.getWidth() - viewCols,
+                state.playerCol - viewCols / HALF_DIVISOR));
+    }
+
+    /**
+     * give every tile in view its shapes, taken from the pools.
+     */
+    private void fillView() {
+        double radius = SQUARE_SIZE * GuiStreamline.TRAIL_RADIUS_FRACTION;
+        for (int i = 0; i < viewRows; i++) {
+            for (int j = 0; j < viewCols; j++) {
+                int slot = i * viewCols + j;
+                int row = firstRow + i;
+                int col = firstCol + j;
+                Circle trail = circlePool.poll();
+                if (trail == null) {
+                    trail = new Circle(0, 0, radius);
+                    group.getChildren().add(trail);
+                }
+                trail.setCenterX(sceneX(col));
+                trail.setCenterY(sceneY(row));
+                trail.setVisible(true);
+                trails[slot] = trail;
+                styleSlot(slot, row, col, state.getTile(row, col));
+            }
+        }
+    }
+
+    /**
+     * give back every shape in view to its pool.
+     */
+    private void releaseView() {
+        for (int slot = 0; slot < trails.length; slot++) {
+            trails[slot].setVisible(false);
+            circlePool.add(trails[slot]);
+            trails[slot] = null;
+            if (tiles[slot] != null) {
+                release(tiles[slot]);
+                tiles[slot] = null;
+            }
+        }
+    }
+
+    /**
+     * color the trail circle of a tile in view and give it an obstacle or
+     * a zapper shape if it needs one.
+     *
+     * @param slot the index of the tile in view
+     * @param row  the row of the tile
+     * @param col  the column of the tile
+     * @param tile the char on the tile
+     */
+    private void styleSlot(int slot, int row, int col, char tile) {
+        if (tile == GameState.TRAIL_CHAR) {
+            trails[slot].setFill(GuiStreamline.TRAIL_COLOR);
+        } else {
+            trails[slot].setFill(Color.TRANSPARENT);
+        }
+        Settable shape = null;
+        if (tile == GameState.OBSTACLE_CHAR) {
+            RoundedSquare square = squarePool.poll();
+            if (square == null) {
+                square = new RoundedSquare(
+                        SQUARE_SIZE * GuiStreamline.SQUARE_FRACTION);
+                square.setFill(GuiStreamline.OBSTACLE_COLOR);
+                group.getChildren().add(square);
+            }
+            shape = square;
+        } else {
+            Direction direction = GameState.zapperDirection(tile);
+            if (direction != null) {
+                ZapperTriangle zapper = zapperPools.get(direction).poll();
+                if (zapper == null) {
+                    zapper = new ZapperTriangle(direction, 0, 0,
+                            SQUARE_SIZE * GuiStreamline.TRIANGLE_FRACTION);
+                    zapper.setFill(GuiStreamline.ZAPPER_COLOR);
+                    group.getChildren().add(zapper);
+                }
+                shape = zapper;
+            }
+        }
+        if (shape != null) {
+            shape.setCenterX(sceneX(col));
+            shape.setCenterY(sceneY(row));
+            ((Shape) shape).setVisible(true);
+            tiles[slot] = (Shape) shape;
+        }
+    }
+
+    /**
+     * hide an obstacle or zapper shape and give it back to its pool.
+     *
+     * @param shape the shape
+     */
+    private void release(Shape shape) {
+        shape.setVisible(false);
+        if (shape instanceof ZapperTriangle) {
+            ZapperTriangle zapper = (ZapperTriangle) shape;
+            zapperPools.get(zapper.getDirection()).add(zapper);
+        } else {
+            squarePool.add((RoundedSquare) shape);
+        }
+    }
+}